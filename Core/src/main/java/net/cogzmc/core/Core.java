@@ -2,6 +2,7 @@ package net.cogzmc.core;
 
 import lombok.Getter;
 import lombok.NonNull;
+import net.cogzmc.core.asset.AssetRegistryListener;
 import net.cogzmc.core.config.YAMLConfigurationFile;
 import net.cogzmc.core.effect.TitleManager;
 import net.cogzmc.core.effect.enderBar.EnderBarManager;
@@ -114,6 +115,7 @@ public class Core extends JavaPlugin {
             }
 
             Bukkit.getPluginManager().registerEvents(new CPlayerJoinPrefixTagListener(),this);
+            registerListener(new AssetRegistryListener());
         } catch (Throwable t) {
             t.printStackTrace();
             Bukkit.getPluginManager().disablePlugin(this);
@@ -0,0 +1,22 @@
+package net.cogzmc.core.asset;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.event.server.PluginEnableEvent;
+
+/**
+ * Keeps the {@link net.cogzmc.core.asset.AssetRegistry} in step with the plugins that are loaded, so asset types from a disabled plugin are let go of.
+ */
+public final class AssetRegistryListener implements Listener {
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPluginEnable(PluginEnableEvent event) {
+        AssetRegistry.forgetFactories(null);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPluginDisable(PluginDisableEvent event) {
+        AssetRegistry.forgetFactories(event.getPlugin().getClass().getClassLoader());
+    }
+}
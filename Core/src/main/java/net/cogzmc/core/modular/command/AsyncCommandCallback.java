@@ -0,0 +1,14 @@
+package net.cogzmc.core.modular.command;
+
+/**
+ * Finishes handling a command once some async work is done. See {@link net.cogzmc.core.modular.command.ModuleCommand#completeAsync(org.bukkit.command.CommandSender, String[], java.util.concurrent.CompletableFuture, AsyncCommandCallback)}.
+ * @param <T> The type of the async result.
+ */
+public interface AsyncCommandCallback<T> {
+    /**
+     * Called on the main thread with the result.
+     * @param result The result of the async work.
+     * @throws CommandException The same way the command handlers do, these are handled by {@link net.cogzmc.core.modular.command.ModuleCommand#handleCommandException(CommandException, String[], org.bukkit.command.CommandSender)}.
+     */
+    void call(T result) throws CommandException;
+}
@@ -7,12 +7,15 @@ import lombok.Getter;
 import lombok.Setter;
 import net.cogzmc.core.Core;
 import net.cogzmc.core.player.CPlayer;
+import net.cogzmc.core.util.Callback;
+import net.cogzmc.core.util.MainThread;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.*;
 import org.bukkit.entity.Player;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * ModuleCommand is the superclass for any commands that are created to hook into the module system in CommunityCraft Core.
@@ -224,6 +227,38 @@ public abstract class ModuleCommand implements CommandExecutor, TabCompleter {
         if (ex instanceof UnhandledCommandExceptionException) ((UnhandledCommandExceptionException) ex).getCausingException().printStackTrace();
     }
 
+    /**
+     * Finishes a command on the main thread once some async work (such as a database lookup) is done, so that the lookup does not block the server.
+     *
+     * Any {@link net.cogzmc.core.modular.command.CommandException} thrown by the callback, or any failure of the future, goes to {@link #handleCommandException(CommandException, String[], org.bukkit.command.CommandSender)} like it would for a normal command.
+     *
+     * @param sender The sender of the command.
+     * @param args The arguments passed to the command.
+     * @param future The async work.
+     * @param callback What to do with the result.
+     * @param <T> The type of the result.
+     */
+    protected final <T> void completeAsync(final CommandSender sender, final String[] args, CompletableFuture<T> future, final AsyncCommandCallback<T> callback) {
+        MainThread.onComplete(future, new Callback<T>() {
+            @Override
+            public void call(T argument) {
+                try {
+                    callback.call(argument);
+                } catch (CommandException ex) {
+                    handleCommandException(ex, args, sender);
+                } catch (Exception e) {
+                    handleCommandException(new UnhandledCommandExceptionException(e), args, sender);
+                }
+            }
+        }, new Callback<Throwable>() {
+            @Override
+            public void call(Throwable argument) {
+                if (argument instanceof CommandException) handleCommandException((CommandException) argument, args, sender);
+                else handleCommandException(new UnhandledCommandExceptionException(argument instanceof Exception ? (Exception) argument : new RuntimeException(argument)), args, sender);
+            }
+        });
+    }
+
     @SuppressWarnings("UnusedParameters")
     protected void preSubCommandDispatch(CommandSender sender, String[] args, ModuleCommand subCommand) {}
 
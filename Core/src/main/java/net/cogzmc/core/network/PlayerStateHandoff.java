@@ -0,0 +1,25 @@
+package net.cogzmc.core.network;
+
+import java.util.UUID;
+
+/**
+ * Implemented by a {@link net.cogzmc.core.network.NetworkManager} that can pass a player's saved state straight to the server they are being sent to,
+ * so that the server they arrive on does not have to load them from the database again.
+ *
+ * Handed off state is short lived, and is only a shortcut. Anything that is not picked up in time is simply loaded from the database as usual.
+ */
+public interface PlayerStateHandoff {
+    /**
+     * Leaves a player's state for the next server they log in to.
+     * @param uuid The {@link java.util.UUID} of the player.
+     * @param state The state of the player, as a BSON document.
+     */
+    void publishPlayerState(UUID uuid, byte[] state);
+
+    /**
+     * Takes the state left for a player, so that nobody else can use it.
+     * @param uuid The {@link java.util.UUID} of the player.
+     * @return The state of the player as a BSON document, or {@code null} if there is none.
+     */
+    byte[] takePlayerState(UUID uuid);
+}
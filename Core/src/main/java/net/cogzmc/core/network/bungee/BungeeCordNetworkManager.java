@@ -18,9 +18,12 @@ import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
 
 import java.net.InetAddress;
 import java.net.NetworkInterface;
+import java.nio.charset.StandardCharsets;
 import java.net.SocketException;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
@@ -31,13 +34,16 @@ import java.util.regex.Pattern;
 @SuppressWarnings({"SuspiciousMethodCalls", "unchecked"})
 @EqualsAndHashCode
 @ToString(of = {"servers", "thisServer", "ip"})
-public class BungeeCordNetworkManager implements NetworkManager {
+public class BungeeCordNetworkManager implements NetworkManager, PlayerStateHandoff {
     static final String NET_COMMAND_CHANNEL = "CORE.BUNGEE.NETCOMMAND";
     private static final String LINK_CHANNEL = "CORE.BUNGEE.LINK";
     private static final String REAPCHANNEL = "CORE.BUNGEE.REAP";
     private static final String HEARTBEAT_CHAN = "CORE.BUNGEE.HEARTBEAT";
     static final String TELEPORT = "CORE.BUNGEE.TELEPORT";
     private static final String KICK = "CORE.BUNGEE.KICK";
+    private static final String HANDOFF_KEY_PREFIX = "CORE.BUNGEE.HANDOFF.";
+    //Long enough for the player to get to the next server, short enough that nobody finds it on a later login.
+    private static final int HANDOFF_EXPIRY_SECONDS = 15;
 
     private final Map<String, BungeeCordServer> servers = new HashMap<>();
     @Getter private final BungeeCordServer thisServer;
@@ -251,6 +257,36 @@ public class BungeeCordNetworkManager implements NetworkManager {
         return true;
     }
 
+    @Override
+    public void publishPlayerState(UUID uuid, byte[] state) {
+        Jedis resource = jedisPool.getResource();
+        try {
+            resource.setex(getHandoffKey(uuid), HANDOFF_EXPIRY_SECONDS, state);
+        } finally {
+            jedisPool.returnResource(resource);
+        }
+    }
+
+    @Override
+    public byte[] takePlayerState(UUID uuid) {
+        byte[] key = getHandoffKey(uuid);
+        Jedis resource = jedisPool.getResource();
+        try {
+            //Read and delete together, so the state can only ever be used once.
+            Transaction transaction = resource.multi();
+            Response<byte[]> state = transaction.get(key);
+            transaction.del(key);
+            transaction.exec();
+            return state.get();
+        } finally {
+            jedisPool.returnResource(resource);
+        }
+    }
+
+    private static byte[] getHandoffKey(UUID uuid) {
+        return (HANDOFF_KEY_PREFIX + uuid).getBytes(StandardCharsets.UTF_8);
+    }
+
     //not sync'd
     private void removeServer0(NetworkServer server) {
         servers.remove(server.getName());
@@ -52,6 +52,8 @@ public class BungeeCordServer implements NetworkServer {
         Bukkit.getScheduler().runTaskAsynchronously(Core.getInstance(), new Runnable() {
             @Override
             public void run() {
+                //Leave our copy of the player for the server they're going to before they leave.
+                Core.getPlayerManager().handOffPlayer(player, networkManager);
                 Jedis resource = networkManager.getJedisPool().getResource();
                 resource.publish(BungeeCordNetworkManager.TELEPORT, player.getUniqueIdentifier() + "|" + name);
                 resource.close();
@@ -1,5 +1,6 @@
 package net.cogzmc.core.player;
 
+import net.cogzmc.core.network.PlayerStateHandoff;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
 
@@ -78,6 +79,24 @@ public interface CPlayerManager extends Iterable<CPlayer>, CPlayerRepository {
      */
     List<CPlayer> getCPlayerByStartOfName(String name);
 
+    /**
+     * Called strictly by a listener, internal method that you should <b>NEVER</b> call under normal circumstances.
+     *
+     * This is called off of the main thread before the player logs in, and should load everything needed to log the player in so that {@link #playerLoggedIn(org.bukkit.entity.Player, java.net.InetAddress)} does not have to.
+     * @param uuid The {@link java.util.UUID} of the player who is about to log in.
+     * @param address The {@link java.net.InetAddress} the player is connecting from.
+     * @throws CPlayerJoinException When the player's data could not be loaded and they should not be allowed to join.
+     */
+    void playerPreLogin(UUID uuid, InetAddress address) throws CPlayerJoinException;
+
+    /**
+     * Called strictly by a listener, internal method that you should <b>NEVER</b> call under normal circumstances.
+     *
+     * Discards anything loaded by {@link #playerPreLogin(java.util.UUID, java.net.InetAddress)} when the login was denied afterwards.
+     * @param uuid The {@link java.util.UUID} of the player who was denied.
+     */
+    void playerPreLoginDenied(UUID uuid);
+
     /**
      * Called strictly by a listener, internal method that you should <b>NEVER</b> call under normal circumstances.
      * @param player The {@link org.bukkit.entity.Player} object that represents the player who is logging in.
@@ -92,6 +111,16 @@ public interface CPlayerManager extends Iterable<CPlayer>, CPlayerRepository {
      */
     void playerLoggedOut(Player player);
 
+    /**
+     * Called strictly by a network manager, internal method that you should <b>NEVER</b> call under normal circumstances.
+     *
+     * Saves a player who is about to be sent to another server, and leaves their state with the {@code handoff} so that the other server can skip loading them.
+     * This blocks until the player has been handed off, and should not be called on the main thread.
+     * @param player The player who is being sent to another server.
+     * @param handoff Where to leave the player's state.
+     */
+    void handOffPlayer(CPlayer player, PlayerStateHandoff handoff);
+
     /**
      * <b>Should only be called during disable, internal method!</b>
      */
@@ -109,6 +138,18 @@ public interface CPlayerManager extends Iterable<CPlayer>, CPlayerRepository {
      */
     void unregisterCPlayerConnectionListener(CPlayerConnectionListener processor);
 
+    /**
+     * Saves a player soon, instead of waiting for their turn in the periodic save. Use this after a change that shouldn't be lost, such as a rank change or a purchase.
+     * @param player The player to save.
+     */
+    void requestSave(COfflinePlayer player);
+
+    /**
+     * Gets the {@link net.cogzmc.core.player.LoginAdmissionController} that limits how many players are loaded at once.
+     * @return The {@link net.cogzmc.core.player.LoginAdmissionController} used when players log in.
+     */
+    LoginAdmissionController getLoginAdmissionController();
+
     GeoIPManager setupNewGeoIPManager(File dbFile) throws IOException;
     GeoIPManager getGeoIPManager();
 }
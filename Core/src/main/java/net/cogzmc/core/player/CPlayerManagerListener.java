@@ -15,16 +15,45 @@ import org.bukkit.event.player.*;
 public final class CPlayerManagerListener implements Listener {
     private final CPlayerManager playerManager;
 
+    //Loads the player's data off of the main thread so that the login event below only has to attach it
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+        //Only so many players are loaded at once, everyone else waits their turn here.
+        LoginAdmissionController admissionController = playerManager.getLoginAdmissionController();
+        if (!admissionController.admit()) {
+            event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER, admissionController.getRefusalMessage());
+            return;
+        }
+        try {
+            playerManager.playerPreLogin(event.getUniqueId(), event.getAddress());
+        } catch (CPlayerJoinException e) {
+            event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER, e.getDisconectMessage());
+        } finally {
+            admissionController.release();
+        }
+    }
+
+    //If anyone after us denied the login, we don't want to hold on to the data we loaded.
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerPreLoginResult(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) playerManager.playerPreLoginDenied(event.getUniqueId());
+    }
+
     //no docs
     @EventHandler(priority = EventPriority.LOWEST, ignoreCancelled = true)
     public void onPlayerJoin(PlayerLoginEvent event) {
         for (CPlayer cPlayer : playerManager.getOnlinePlayers()) {
             if (cPlayer.getName().equals(event.getPlayer().getName())) {
                 event.disallow(PlayerLoginEvent.Result.KICK_OTHER, "You are already on this server. Try logging in again!");
+                playerManager.playerPreLoginDenied(event.getPlayer().getUniqueId());
                 return;
             }
         }
-        if (event.getResult() != PlayerLoginEvent.Result.ALLOWED) return; //Prevent whitelist from causing memory leaks.
+        if (event.getResult() != PlayerLoginEvent.Result.ALLOWED) { //Prevent whitelist from causing memory leaks.
+            playerManager.playerPreLoginDenied(event.getPlayer().getUniqueId());
+            return;
+        }
         Player player = event.getPlayer();
         try {
             playerManager.playerLoggedIn(player, event.getAddress());
@@ -1,34 +1,85 @@
 package net.cogzmc.core.player;
 
-import lombok.Data;
 import net.cogzmc.core.Core;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-@Data
+/**
+ * Saves every online player once per save interval, a slice at a time.
+ *
+ * The interval is split into one slot per second, and each player is hashed into one of them, so every run only saves the players in its slot.
+ * This keeps the database load flat, instead of saving everyone in the same second. Players can also be saved ahead of their turn using {@link #requestSave(COfflinePlayer)}.
+ *
+ * A run that starts while the last one is still saving does nothing, and the slot it would have saved is saved by the next run instead.
+ */
 public final class CPlayerManagerSaveTask implements Runnable {
+    //This task runs once a second.
+    public static final long PERIOD_TICKS = 20;
+
     private final CPlayerManager manager;
+    private final int slots;
+    private final Set<COfflinePlayer> requestedSaves = Collections.newSetFromMap(new ConcurrentHashMap<COfflinePlayer, Boolean>());
+    //The async scheduler starts a run every second whether or not the last one has finished, so this keeps them from overlapping.
+    private final AtomicBoolean running = new AtomicBoolean();
+    //Only touched while running is held.
+    private int currentSlot;
+    //Totals for the whole interval, which are logged once each time we've gone through every slot.
+    private int savedPlayers, batches;
+
+    public CPlayerManagerSaveTask(CPlayerManager manager, int saveFrequencySeconds) {
+        this.manager = manager;
+        this.slots = Math.max(1, saveFrequencySeconds);
+    }
+
+    /**
+     * Saves a player the next time this task runs, instead of waiting for their slot.
+     * @param player The player to save.
+     */
+    public void requestSave(COfflinePlayer player) {
+        requestedSaves.add(player);
+    }
 
     @Override
     public void run() {
-        List<CPlayer> failedToSave = new ArrayList<>();
-        int savedPlayers = 0;
-        synchronized (manager) {
-            Core.getPermissionsManager().reloadPermissions();
-            for (CPlayer cPlayer : manager.getOnlinePlayers()) {
-                try {
-                    cPlayer.saveIntoDatabase();
-                    savedPlayers++;
-                } catch (DatabaseConnectException e) {
-                    failedToSave.add(cPlayer);
-                    e.printStackTrace();
-                }
-            }
+        if (!running.compareAndSet(false, true)) return;
+        try {
+            saveSlot();
+        } finally {
+            running.set(false);
         }
-        for (CPlayer cPlayer : failedToSave) {
-            Core.logInfo("Failed to save " + cPlayer.toString());
+    }
+
+    private void saveSlot() {
+        int slot = currentSlot;
+        currentSlot = (currentSlot + 1) % slots;
+        //This is a copy of who is online right now, so players can keep logging in and out while we save.
+        Set<COfflinePlayer> players = new LinkedHashSet<>();
+        for (CPlayer player : manager.getOnlinePlayers()) {
+            if (getSlotFor(player.getUniqueIdentifier()) == slot) players.add(player);
+        }
+        Iterator<COfflinePlayer> requested = requestedSaves.iterator();
+        while (requested.hasNext()) {
+            players.add(requested.next());
+            requested.remove();
+        }
+        if (!players.isEmpty()) {
+            PlayerSaveReport report = manager.savePlayerData(players);
+            for (Map.Entry<COfflinePlayer, String> failure : report.getFailedPlayers().entrySet()) {
+                Core.logInfo("Failed to save " + failure.getKey().toString() + " - " + failure.getValue());
+            }
+            savedPlayers += report.getSavedPlayers().size();
+            batches += report.getBatches();
         }
-        if (savedPlayers > 0) Core.logInfo("Saved " + savedPlayers + " players!");
+        if (currentSlot != 0) return;
+        if (savedPlayers > 0) Core.logInfo("Saved " + savedPlayers + " players in " + batches + " batches!");
+        savedPlayers = 0;
+        batches = 0;
+    }
+
+    //A player always lands in the same slot, so they're saved exactly once per interval.
+    private int getSlotFor(UUID uuid) {
+        return Math.floorMod(uuid.hashCode(), slots);
     }
 }
@@ -0,0 +1,27 @@
+package net.cogzmc.core.player;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import net.cogzmc.core.network.NetCommand;
+import net.cogzmc.core.network.NetCommandField;
+
+/**
+ * Sent to every server when a player's or group's permission data has been written, so that they can re-read just that one player or group.
+ */
+@AllArgsConstructor
+@Data
+@NetCommandField
+public final class DataInvalidationNetCommand implements NetCommand {
+    public DataInvalidationNetCommand() {
+    }
+    private Type type;
+    //The player's UUID, or the group's ObjectId as hex.
+    private String id;
+
+    public static enum Type {
+        PLAYER_CHANGED,
+        PLAYER_DELETED,
+        GROUP_CHANGED,
+        GROUP_DELETED
+    }
+}
@@ -0,0 +1,107 @@
+package net.cogzmc.core.player;
+
+import lombok.Getter;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how many players can be loaded at once, so that a lot of players joining together (such as after a proxy restart) are let in a few at a time instead of all hitting the database at once.
+ *
+ * Players who can't be loaded right away wait in line, first come first served. Anyone still waiting when their wait budget runs out is refused and asked to try again.
+ */
+public final class LoginAdmissionController {
+    @Getter private final int maximumConcurrentLoads;
+    @Getter private final long waitBudgetMillis;
+    @Getter private final String refusalMessage;
+
+    //Fair, so whoever has been waiting the longest is let in first.
+    private final Semaphore permits;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong admittedCount = new AtomicLong();
+    private final AtomicLong refusedCount = new AtomicLong();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong longestWaitMillis = new AtomicLong();
+
+    public LoginAdmissionController(int maximumConcurrentLoads, long waitBudgetMillis, String refusalMessage) {
+        if (maximumConcurrentLoads < 1) throw new IllegalArgumentException("At least one player must be able to load at a time!");
+        this.maximumConcurrentLoads = maximumConcurrentLoads;
+        this.waitBudgetMillis = waitBudgetMillis;
+        this.refusalMessage = refusalMessage;
+        this.permits = new Semaphore(maximumConcurrentLoads, true);
+    }
+
+    /**
+     * Waits for a turn to load a player. Every call that returns {@code true} must be followed by a call to {@link #release()}.
+     * @return {@code true} if the player may be loaded, {@code false} if they waited too long and should be refused with {@link #getRefusalMessage()}.
+     */
+    public boolean admit() {
+        long start = System.currentTimeMillis();
+        queueDepth.incrementAndGet();
+        boolean admitted;
+        try {
+            admitted = permits.tryAcquire(waitBudgetMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        } finally {
+            queueDepth.decrementAndGet();
+        }
+        long waited = System.currentTimeMillis() - start;
+        if (!admitted) {
+            refusedCount.incrementAndGet();
+            return false;
+        }
+        admittedCount.incrementAndGet();
+        totalWaitMillis.addAndGet(waited);
+        long longest = longestWaitMillis.get();
+        while (waited > longest && !longestWaitMillis.compareAndSet(longest, waited)) longest = longestWaitMillis.get();
+        return true;
+    }
+
+    /**
+     * Gives up a turn taken by {@link #admit()}, letting the next player in line in.
+     */
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * Gets the number of players waiting for their turn right now.
+     * @return The queue depth.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Gets the number of players being loaded right now.
+     * @return The number of turns in use.
+     */
+    public int getActiveLoads() {
+        return maximumConcurrentLoads - permits.availablePermits();
+    }
+
+    public long getAdmittedCount() {
+        return admittedCount.get();
+    }
+
+    public long getRefusedCount() {
+        return refusedCount.get();
+    }
+
+    /**
+     * Gets the average time players who were let in spent waiting.
+     * @return The average wait in milliseconds, or {@code 0} if nobody has been let in yet.
+     */
+    public long getAverageWaitMillis() {
+        long admitted = admittedCount.get();
+        return admitted == 0 ? 0 : totalWaitMillis.get() / admitted;
+    }
+
+    public long getLongestWaitMillis() {
+        return longestWaitMillis.get();
+    }
+}
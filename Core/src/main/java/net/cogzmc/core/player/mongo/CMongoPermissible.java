@@ -0,0 +1,193 @@
+package net.cogzmc.core.player.mongo;
+
+import net.cogzmc.core.Core;
+import net.cogzmc.core.player.PermissionTrie;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.permissions.Permissible;
+import org.bukkit.permissions.PermissibleBase;
+import org.bukkit.permissions.Permission;
+import org.bukkit.permissions.PermissionAttachment;
+import org.bukkit.permissions.PermissionAttachmentInfo;
+
+import java.lang.reflect.Field;
+import java.util.*;
+
+/**
+ * Put in place of a player's {@link org.bukkit.permissions.PermissibleBase}, so that permission checks are answered from the permissions Core has
+ * already resolved, instead of adding every node to an attachment one at a time (which has Bukkit recalculate everything for each node).
+ *
+ * Anything we don't have a value for falls through to Bukkit, so attachments from other plugins and permission defaults still work.
+ */
+final class CMongoPermissible extends PermissibleBase {
+    private final Player player;
+    private final PermissibleBase original;
+    //Replaced as a whole on every reload, so a check never sees half of the old permissions and half of the new ones.
+    private volatile Snapshot snapshot = new Snapshot(PermissionTrie.EMPTY, Collections.<String, Boolean>emptyMap(), Collections.<String, Boolean>emptyMap());
+
+    private CMongoPermissible(Player player, PermissibleBase original) {
+        super(player);
+        this.player = player;
+        this.original = original;
+    }
+
+    /**
+     * Puts a {@link net.cogzmc.core.player.mongo.CMongoPermissible} in place of the player's own.
+     * @param player The player.
+     * @return The injected permissible, or {@code null} if this server's player class isn't what we expect, in which case attachments should be used instead.
+     */
+    static CMongoPermissible inject(Player player) {
+        try {
+            Field permissibleField = getPermissibleField(player.getClass());
+            if (permissibleField == null) return null;
+            PermissibleBase original = (PermissibleBase) permissibleField.get(player);
+            CMongoPermissible permissible = new CMongoPermissible(player, original);
+            //Other plugins may have already given the player attachments, which we keep.
+            if (original != null) moveAttachments(original, permissible);
+            permissibleField.set(player, permissible);
+            return permissible;
+        } catch (Exception e) {
+            Core.getInstance().getLogger().warning("Could not replace the permissions of " + player.getName() + ", using attachments instead: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Puts the player's own permissible back, such as when Core is disabled.
+     */
+    void uninject() {
+        if (original == null) return;
+        try {
+            Field permissibleField = getPermissibleField(player.getClass());
+            if (permissibleField == null || permissibleField.get(player) != this) return;
+            //Attachments given to the player since we were injected go back with them.
+            moveAttachments(this, original);
+            permissibleField.set(player, original);
+        } catch (Exception e) {
+            Core.getInstance().getLogger().warning("Could not restore the permissions of " + player.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Moves every attachment from one permissible to another, replacing the attachments the other one had.
+     * The attachments themselves are kept rather than copied, since the plugins that made them still hold them, and are pointed at the new permissible
+     * so that changing or removing them updates the permissible the player is actually using.
+     */
+    private static void moveAttachments(PermissibleBase from, PermissibleBase to) throws ReflectiveOperationException {
+        Field attachmentsField = PermissibleBase.class.getDeclaredField("attachments");
+        attachmentsField.setAccessible(true);
+        Field attachmentPermissibleField = PermissionAttachment.class.getDeclaredField("permissible");
+        attachmentPermissibleField.setAccessible(true);
+        @SuppressWarnings("unchecked") List<PermissionAttachment> fromAttachments = (List<PermissionAttachment>) attachmentsField.get(from);
+        @SuppressWarnings("unchecked") List<PermissionAttachment> toAttachments = (List<PermissionAttachment>) attachmentsField.get(to);
+        toAttachments.clear();
+        toAttachments.addAll(fromAttachments);
+        for (PermissionAttachment attachment : toAttachments) attachmentPermissibleField.set(attachment, to);
+        to.recalculatePermissions();
+    }
+
+    private static Field getPermissibleField(Class<?> type) {
+        for (Class<?> type1 = type; type1 != null; type1 = type1.getSuperclass()) {
+            for (Field field : type1.getDeclaredFields()) {
+                if (!PermissibleBase.class.isAssignableFrom(field.getType())) continue;
+                field.setAccessible(true);
+                return field;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Swaps in newly resolved permissions.
+     * @param permissions The resolved permissions.
+     * @param trie The {@link net.cogzmc.core.player.PermissionTrie} compiled from them.
+     */
+    void update(Map<String, Boolean> permissions, PermissionTrie trie) {
+        this.snapshot = new Snapshot(trie, permissions, getChildPermissions(permissions));
+    }
+
+    //Plugins register permissions that grant others (their children), which Bukkit would have expanded when they were put in an attachment.
+    private static Map<String, Boolean> getChildPermissions(Map<String, Boolean> permissions) {
+        Map<String, Boolean> childPermissions = new HashMap<>();
+        for (Map.Entry<String, Boolean> permission : permissions.entrySet()) {
+            addChildPermissions(permission.getKey(), permission.getValue(), permissions, childPermissions, new HashSet<String>());
+        }
+        return childPermissions.isEmpty() ? Collections.<String, Boolean>emptyMap() : childPermissions;
+    }
+
+    private static void addChildPermissions(String name, boolean value, Map<String, Boolean> permissions, Map<String, Boolean> childPermissions, Set<String> visited) {
+        if (!visited.add(name)) return;
+        Permission permission = Bukkit.getPluginManager().getPermission(name);
+        if (permission == null) return;
+        for (Map.Entry<String, Boolean> child : permission.getChildren().entrySet()) {
+            String childName = child.getKey().toLowerCase();
+            //A child of a denied permission is given the opposite of what it would be given otherwise, the same as Bukkit does.
+            boolean childValue = child.getValue() == value;
+            //Anything we've been given directly is left alone.
+            if (!permissions.containsKey(childName)) childPermissions.put(childName, childValue);
+            addChildPermissions(childName, childValue, permissions, childPermissions, visited);
+        }
+    }
+
+    private Boolean getValue(String name) {
+        Snapshot snapshot = this.snapshot;
+        Boolean value = snapshot.trie.getValue(name);
+        if (value != null) return value;
+        return snapshot.childPermissions.isEmpty() ? null : snapshot.childPermissions.get(name.toLowerCase());
+    }
+
+    @Override
+    public boolean hasPermission(String name) {
+        if (name == null) throw new IllegalArgumentException("Permission name cannot be null");
+        Boolean value = getValue(name);
+        return value != null ? value : super.hasPermission(name);
+    }
+
+    @Override
+    public boolean hasPermission(Permission perm) {
+        if (perm == null) throw new IllegalArgumentException("Permission cannot be null");
+        Boolean value = getValue(perm.getName());
+        return value != null ? value : super.hasPermission(perm);
+    }
+
+    @Override
+    public boolean isPermissionSet(String name) {
+        if (name == null) throw new IllegalArgumentException("Permission name cannot be null");
+        return getValue(name) != null || super.isPermissionSet(name);
+    }
+
+    @Override
+    public boolean isPermissionSet(Permission perm) {
+        if (perm == null) throw new IllegalArgumentException("Permission cannot be null");
+        return isPermissionSet(perm.getName());
+    }
+
+    @Override
+    public Set<PermissionAttachmentInfo> getEffectivePermissions() {
+        Snapshot snapshot = this.snapshot;
+        Map<String, PermissionAttachmentInfo> effectivePermissions = new HashMap<>();
+        for (PermissionAttachmentInfo info : super.getEffectivePermissions()) effectivePermissions.put(info.getPermission(), info);
+        addEffectivePermissions(this, snapshot.childPermissions, effectivePermissions);
+        addEffectivePermissions(this, snapshot.permissions, effectivePermissions);
+        return new HashSet<>(effectivePermissions.values());
+    }
+
+    private static void addEffectivePermissions(Permissible permissible, Map<String, Boolean> permissions, Map<String, PermissionAttachmentInfo> effectivePermissions) {
+        for (Map.Entry<String, Boolean> permission : permissions.entrySet()) {
+            String name = permission.getKey().toLowerCase();
+            effectivePermissions.put(name, new PermissionAttachmentInfo(permissible, name, null, permission.getValue()));
+        }
+    }
+
+    private static final class Snapshot {
+        private final PermissionTrie trie;
+        private final Map<String, Boolean> permissions;
+        private final Map<String, Boolean> childPermissions;
+
+        private Snapshot(PermissionTrie trie, Map<String, Boolean> permissions, Map<String, Boolean> childPermissions) {
+            this.trie = trie;
+            this.permissions = permissions;
+            this.childPermissions = childPermissions;
+        }
+    }
+}
@@ -1,7 +1,12 @@
 package net.cogzmc.core.player.mongo;
 
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
 import net.cogzmc.core.Core;
+import net.cogzmc.core.network.NetworkManager;
 import net.cogzmc.core.player.*;
+import org.bson.types.ObjectId;
+import org.bukkit.Bukkit;
 
 import java.lang.ref.WeakReference;
 import java.util.*;
@@ -16,12 +21,44 @@ public final class CMongoPermissionsManager extends CMongoGroupRepository implem
     public CMongoPermissionsManager(CMongoDatabase database, CMongoPlayerManager playerManager) {
         super(database, playerManager);
         this.playerManager = playerManager;
+        NetworkManager networkManager = Core.getNetworkManager();
+        if (networkManager != null) networkManager.registerNetCommandHandler(new DataInvalidationNetCommandHandler(database, this, playerManager), DataInvalidationNetCommand.class);
+        //Catches changes saved by servers we can't hear from (no network), which costs a single read when nothing changed.
+        //Groups edited in the database directly don't touch the counter, so they need a /perm reload.
+        long checkPeriod = Core.getInstance().getSaveFrequency() * 20L;
+        Bukkit.getScheduler().runTaskTimerAsynchronously(Core.getInstance(), new Runnable() {
+            @Override
+            public void run() {
+                checkForChangedGroups();
+            }
+        }, checkPeriod, checkPeriod);
+    }
+
+    private void checkForChangedGroups() {
+        final Map<ObjectId, DBObject> changedGroups;
+        try {
+            changedGroups = findChangedGroups();
+        } catch (MongoException e) {
+            Core.getInstance().getLogger().severe("Could not check the groups for changes: " + e.getMessage());
+            return;
+        }
+        if (changedGroups.isEmpty()) return;
+        Bukkit.getScheduler().runTask(Core.getInstance(), new Runnable() {
+            @Override
+            public void run() {
+                for (Map.Entry<ObjectId, DBObject> changedGroup : changedGroups.entrySet()) {
+                    replaceGroup(changedGroup.getKey(), changedGroup.getValue());
+                }
+                notifyObservers();
+                Core.logInfo("Reloaded " + changedGroups.size() + " groups that changed in the database!");
+            }
+        });
     }
 
     @Override
     public CGroup createNewGroup(String name) { //How to create a group:
-        CGroup newGroup = super.createNewGroup(name);
-        reloadPermissions(); //Reload our permissions
+        CGroup newGroup = super.createNewGroup(name); //It's already resolved and in the graph,
+        notifyObservers(); //so we only need to let everyone know
         return newGroup; //And return it
     }
 
@@ -35,15 +72,45 @@ public final class CMongoPermissionsManager extends CMongoGroupRepository implem
 
     private Set<CPlayer> getOnlineMembers(CGroup group) {
         Set<CPlayer> players = new HashSet<>();
-        for (CPlayer player : playerManager) {
-            if (player.isDirectlyInGroup(group)) players.add(player);
+        //Players in no groups are tracked under the default group, but aren't in it.
+        for (COfflineMongoPlayer player : getOnlineMembers(((CMongoGroup) group).getObjectId())) {
+            if (player instanceof CPlayer && player.isDirectlyInGroup(group)) players.add((CPlayer) player);
         }
         return players;
     }
 
+    @Override
+    void onGroupWritten(ObjectId groupId) {
+        broadcastInvalidation(DataInvalidationNetCommand.Type.GROUP_CHANGED, groupId);
+    }
+
+    @Override
+    void onGroupDeleted(ObjectId groupId) {
+        broadcastInvalidation(DataInvalidationNetCommand.Type.GROUP_DELETED, groupId);
+    }
+
+    private void broadcastInvalidation(DataInvalidationNetCommand.Type type, ObjectId groupId) {
+        NetworkManager networkManager = Core.getNetworkManager();
+        //Nothing can be sent once we're shutting down, the other servers will read the group the next time it changes or they restart.
+        if (networkManager == null || groupId == null || !Core.getInstance().isEnabled()) return;
+        networkManager.sendMassNetCommand(new DataInvalidationNetCommand(type, groupId.toHexString()));
+    }
+
     @Override
     public void reloadPermissions() {
         reloadGroups();
+        onGroupsChanged();
+    }
+
+    //Lets the observers and online players know that the groups have been replaced.
+    private void onGroupsChanged() {
+        notifyObservers();
+        for (CPlayer cPlayer : Core.getPlayerManager()) {
+            cPlayer.reloadPermissions();
+        }
+    }
+
+    void notifyObservers() {
         Iterator<WeakReference<GroupReloadObserver>> iterator = groupReloadObservers.iterator();
         while (iterator.hasNext()) {
             GroupReloadObserver observer = iterator.next().get();
@@ -57,9 +124,6 @@ public final class CMongoPermissionsManager extends CMongoGroupRepository implem
                 e.printStackTrace();
             }
         }
-        for (CPlayer cPlayer : Core.getPlayerManager()) {
-            cPlayer.reloadPermissions();
-        }
     }
 
     public void registerObserver(GroupReloadObserver observer) {
@@ -25,7 +25,6 @@ import org.bukkit.util.Vector;
 import java.lang.ref.WeakReference;
 import java.net.InetAddress;
 import java.util.Date;
-import java.util.List;
 import java.util.Map;
 
 @EqualsAndHashCode(callSuper = true, of = {"username"})
@@ -34,6 +33,8 @@ final class CMongoPlayer extends COfflineMongoPlayer implements CPlayer {
     @Getter private final String username;
     private WeakReference<Player> _bukkitPlayer;
     private PermissionAttachment permissionAttachment;
+    //Answers Bukkit's permission checks from our resolved permissions, null if it couldn't be put in place (we use the attachment then).
+    private CMongoPermissible permissible;
     @Getter private boolean firstJoin = false;
     @Getter private InetAddress address = null;
     @Getter private final CooldownManager cooldownManager = new CooldownManager();
@@ -46,19 +47,22 @@ final class CMongoPlayer extends COfflineMongoPlayer implements CPlayer {
         this._bukkitPlayer = new WeakReference<>(player);
     }
 
-    void onLogin(InetAddress address) throws DatabaseConnectException {
+    //Only touches the state we already have in memory, the data is saved by the manager off of the main thread.
+    void onLogin(InetAddress address) {
         Player bukkitPlayer = getBukkitPlayer();
         this.setLastKnownUsername(bukkitPlayer.getName());
         this.setLastTimeOnline(new Date());
-        addIfUnique(this.getKnownUsernames(), bukkitPlayer.getName());
+        logUsername(bukkitPlayer.getName());
         this.address = address;
         logIP(address);
         if (this.getFirstTimeOnline() == null) {
             this.setFirstTimeOnline(new Date());
             this.firstJoin = true;
         }
-        saveIntoDatabase();
-        reloadPermissions();
+        //Our groups and permissions were resolved when we were loaded, so we only need to give them to Bukkit.
+        this.permissible = CMongoPermissible.inject(bukkitPlayer);
+        applyPermissionAttachment();
+        playerRepository.groupRepository.trackOnlineMember(this);
     }
 
     void updateForSaving() {
@@ -69,14 +73,6 @@ final class CMongoPlayer extends COfflineMongoPlayer implements CPlayer {
         this.setLastTimeOnline(leaveTime);
     }
 
-    private static <T> void addIfUnique(List<T> list, T object) {
-        if (list == null) return;
-        for (T t : list) {
-            if (t.equals(object)) return;
-        }
-        list.add(object);
-    }
-
     @Override
     public String getName() {
         return getBukkitPlayer().getName();
@@ -353,9 +349,27 @@ final class CMongoPlayer extends COfflineMongoPlayer implements CPlayer {
         getBukkitPlayer().kickPlayer(message);
     }
 
+    //Gives the player back the permissible they had before we replaced it.
+    void uninjectPermissible() {
+        if (permissible == null) return;
+        permissible.uninject();
+        permissible = null;
+    }
+
     @Override
     public void reloadPermissions() {
         super.reloadPermissions();
+        applyPermissionAttachment();
+        //Our groups may have changed.
+        Player bukkitPlayer = getBukkitPlayer();
+        if (bukkitPlayer != null && bukkitPlayer.isOnline()) playerRepository.groupRepository.trackOnlineMember(this);
+    }
+
+    private void applyPermissionAttachment() {
+        if (permissible != null) {
+            permissible.update(getAllPermissions(), permissionTrie);
+            return;
+        }
         if (permissionAttachment != null) permissionAttachment.remove();
         permissionAttachment = getBukkitPlayer().addAttachment(Core.getInstance());
         for (Map.Entry<String, Boolean> stringBooleanEntry : getAllPermissions().entrySet()) {
@@ -1,13 +1,16 @@
 package net.cogzmc.core.player.mongo;
 
 import com.google.common.collect.ImmutableList;
-import com.mongodb.BasicDBObject;
-import com.mongodb.DBCollection;
+import com.google.common.util.concurrent.Striped;
+import com.mongodb.DBObject;
 import com.mongodb.MongoException;
+import lombok.Data;
 import lombok.NonNull;
-import lombok.Synchronized;
 import net.cogzmc.core.Core;
+import net.cogzmc.core.network.NetworkManager;
+import net.cogzmc.core.network.PlayerStateHandoff;
 import net.cogzmc.core.player.*;
+import net.cogzmc.util.KeyedSerialExecutor;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.OfflinePlayer;
@@ -17,26 +20,87 @@ import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
 
 public final class CMongoPlayerManager extends CMongoPlayerRepository implements CPlayerManager {
+    //How long data loaded before login is held for the login event before we consider it stale.
+    private static final long PREFETCH_EXPIRY_MILLIS = 30000;
+    //How long we give ourselves to save everyone when the server shuts down.
+    private static final long SHUTDOWN_SAVE_TIMEOUT_MILLIS = 10000;
+    private static final String JOURNAL_FILE_NAME = "player-journal.bson";
+    private static final String LEGACY_JOURNAL_FILE_NAME = "player-journal.log";
+    //How many players can be written at once in the background.
+    private static final int PLAYER_WRITE_THREADS = 4;
+    //How long someone logging in will wait for their last session to finish saving.
+    private static final long PLAYER_WRITE_WAIT_MILLIS = 5000;
+    //How many locks the players are spread across. Two players only wait on each other if they land on the same one.
+    private static final int PLAYER_LOCK_STRIPES = 64;
+
     private CMongoDatabase database;
 
     private final Map<String, CPlayer> onlinePlayerMap = new ConcurrentHashMap<>();
-    private final List<CPlayerConnectionListener> playerConnectionListeners = new ArrayList<>();
+    private final Map<UUID, PrefetchedPlayer> prefetchedPlayers = new ConcurrentHashMap<>();
+    private final List<CPlayerConnectionListener> playerConnectionListeners = new CopyOnWriteArrayList<>();
+    //Logging in, logging out, and deleting a player are done under that player's lock, instead of one lock for everyone.
+    private final Striped<Lock> playerLocks = Striped.lock(PLAYER_LOCK_STRIPES);
+    //Writes for a single player always happen in the order they were made, and loads wait for them.
+    private final KeyedSerialExecutor<UUID> playerWriteLanes = new KeyedSerialExecutor<>("Core Player Writes", PLAYER_WRITE_THREADS);
 
     private GeoIPManager geoIPManager;
+    private final LoginAdmissionController loginAdmissionController;
+    private final CPlayerManagerSaveTask saveTask;
 
     public CMongoPlayerManager(CMongoDatabase database) {
         super(database);
         this.database = database;
+        this.loginAdmissionController = new LoginAdmissionController(Core.getInstance().getConfig().getInt("login-admission.maximum-concurrent-loads", 16),
+                Core.getInstance().getConfig().getLong("login-admission.wait-budget-seconds", 10) * 1000,
+                ChatColor.translateAlternateColorCodes('&', Core.getInstance().getConfig().getString("login-admission.refusal-message", "&cToo many players are joining right now, please try again in a moment!")));
         Core.getInstance().registerListener(new CPlayerManagerListener(this));
-        Integer saveFrequency = Core.getInstance().getSaveFrequency()*20;
-        Bukkit.getScheduler().runTaskTimerAsynchronously(Core.getInstance(), new CPlayerManagerSaveTask(this), saveFrequency, saveFrequency);
-        DBCollection users = database.getCollection(MongoKey.USERS_COLLETION.toString());
-        if (users.count() == 0) { //Looks like a new collection to me
-            //Need to setup the index
-            users.createIndex(new BasicDBObject(MongoKey.UUID_KEY.toString(), 1));
+        //Players are saved a few at a time every second, everyone once per save frequency.
+        this.saveTask = new CPlayerManagerSaveTask(this, Core.getInstance().getSaveFrequency());
+        Bukkit.getScheduler().runTaskTimerAsynchronously(Core.getInstance(), saveTask, CPlayerManagerSaveTask.PERIOD_TICKS, CPlayerManagerSaveTask.PERIOD_TICKS);
+        //Make sure everything we query on is indexed
+        MongoIndexManager indexManager = database.getIndexManager();
+        indexManager.declareCoreIndexes();
+        indexManager.ensureIndexes();
+        //Older documents store UUIDs as strings, which are rewritten a little at a time in the background.
+        database.getSchemaMigrator().migrate(MongoKey.USERS_COLLETION.toString(), MongoKey.UUID_KEY.toString());
+        database.getSchemaMigrator().migrate(MongoKey.GROUPS_COLLECTION.toString());
+        //Older documents don't have the lowercase names yet, so we fill them in off of the main thread. They're found by their usernames until this has finished.
+        Bukkit.getScheduler().runTaskAsynchronously(Core.getInstance(), new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int updated = backfillLowercaseUsernames();
+                    if (updated > 0) Core.logInfo("Added lowercase usernames to " + updated + " players.");
+                } catch (MongoException e) {
+                    Core.getInstance().getLogger().severe("Could not add lowercase usernames to players " + e.getMessage());
+                }
+            }
+        });
+        //The same goes for IP accounts, which are looked up in the player documents as well until this has finished.
+        Bukkit.getScheduler().runTaskAsynchronously(Core.getInstance(), new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int recorded = backfillIPAccounts();
+                    if (recorded > 0) Core.logInfo("Recorded " + recorded + " IP addresses from player documents.");
+                } catch (MongoException e) {
+                    Core.getInstance().getLogger().severe("Could not record IP addresses from player documents " + e.getMessage());
+                }
+            }
+        });
+        setupOfflinePlayerCache(Core.getInstance().getConfig().getLong("offline-player-cache.maximum-size", 1000),
+                Core.getInstance().getConfig().getLong("offline-player-cache.expire-after-seconds", 60));
+        //Saves are journaled to disk and written in the background, anything left over from last time is written now.
+        try {
+            File dataFolder = Core.getInstance().getDataFolder();
+            if (!dataFolder.exists() && !dataFolder.mkdirs()) throw new IOException("Could not create " + dataFolder.getPath());
+            setWriteBehindQueue(new PlayerWriteBehindQueue(this, new File(dataFolder, JOURNAL_FILE_NAME), new File(dataFolder, LEGACY_JOURNAL_FILE_NAME)));
+        } catch (IOException e) {
+            Core.getInstance().getLogger().severe("Could not open the player journal, players will be saved directly! " + e.getMessage());
         }
         //Setup online player map
         for (Player player : Bukkit.getOnlinePlayers()) {
@@ -57,6 +121,13 @@ public final class CMongoPlayerManager extends CMongoPlayerRepository implements
         return super.getOfflinePlayerByUUID(uuid);
     }
 
+    @Override
+    COfflineMongoPlayer getLoadedPlayer(UUID uuid) {
+        CPlayer onlinePlayer = getOnlineCPlayerForUUID(uuid);
+        if (onlinePlayer != null) return (CMongoPlayer) onlinePlayer;
+        return super.getLoadedPlayer(uuid);
+    }
+
     @Override
     public List<COfflinePlayer> getOfflinePlayerByName(String username) {
         CPlayer onlinePlayer;
@@ -115,18 +186,168 @@ public final class CMongoPlayerManager extends CMongoPlayerRepository implements
     }
 
     @Override
-    @Synchronized
-    public void playerLoggedIn(Player player, InetAddress address) throws CPlayerJoinException {
-        //Creates a new CMongoPlayer by passing the player, the offline player (for data), and this.
-        CMongoPlayer cMongoPlayer = new CMongoPlayer(player, getOfflinePlayerByUUID(player.getUniqueId()), this);
-        this.onlinePlayerMap.put(player.getName(), cMongoPlayer);
+    public void playerPreLogin(UUID uuid, InetAddress address) throws CPlayerJoinException {
+        expirePrefetchedPlayers();
+        awaitPlayerWrites(uuid);
+        COfflineMongoPlayer offlinePlayer;
+        try {
+            //This decodes the document, and resolves the groups and permissions for the player, all off of the main thread.
+            //A player logging in always gets a fresh copy, they may have been changed on another server.
+            invalidateCachedPlayer(uuid);
+            offlinePlayer = getHandedOffPlayer(uuid);
+            if (offlinePlayer == null) offlinePlayer = loadOfflinePlayerByUUID(uuid);
+        } catch (MongoException e) {
+            Core.getInstance().getLogger().severe("Could not read player from the database " + e.getMessage() + " - " + uuid);
+            throw new CPlayerJoinException("Error while logging you in in the CPlayerManager " + e.getClass().getSimpleName() + " : " + e.getMessage() + "\nPlease contact a developer!");
+        }
+        this.prefetchedPlayers.put(uuid, new PrefetchedPlayer(offlinePlayer, System.currentTimeMillis()));
+    }
+
+    //Uses the state left by the server the player came from, as long as nothing has been saved since (by any server).
+    private COfflineMongoPlayer getHandedOffPlayer(UUID uuid) {
+        if (!(Core.getNetworkManager() instanceof PlayerStateHandoff)) return null;
+        DBObject document;
+        try {
+            byte[] state = ((PlayerStateHandoff) Core.getNetworkManager()).takePlayerState(uuid);
+            if (state == null) return null;
+            document = decodeHandedOffState(state);
+        } catch (RuntimeException e) {
+            //The handoff is only a shortcut, so anything wrong with it just means we load them ourselves.
+            Core.getInstance().getLogger().severe("Could not read handed off player state " + e.getMessage() + " - " + uuid);
+            return null;
+        }
+        return getPlayerFromHandedOffState(uuid, document);
+    }
+
+    @Override
+    public void handOffPlayer(CPlayer player, final PlayerStateHandoff handoff) {
+        final CMongoPlayer cMongoPlayer = (CMongoPlayer) player;
+        Future<?> handedOff;
+        try {
+            handedOff = playerWriteLanes.submit(cMongoPlayer.getUniqueIdentifier(), new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        //Saving first stamps the player with the id of their latest write, so the other server knows the state is current.
+                        cMongoPlayer.saveIntoDatabase();
+                        //Saving only journals the write, and the other server compares against what's in Mongo, so it has to get there before we hand off.
+                        writeQueuedPlayer(cMongoPlayer.getUniqueIdentifier());
+                    } catch (DatabaseConnectException | MongoException e) {
+                        Core.getInstance().getLogger().severe("Could not save player into the database " + e.getMessage() + " - " + cMongoPlayer.getName());
+                        return;
+                    }
+                    try {
+                        handoff.publishPlayerState(cMongoPlayer.getUniqueIdentifier(), encodeHandedOffState(cMongoPlayer));
+                    } catch (RuntimeException e) {
+                        Core.getInstance().getLogger().severe("Could not hand off player state " + e.getMessage() + " - " + cMongoPlayer.getName());
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return; //We're shutting down, so the other server will load them from the database.
+        }
         try {
-            cMongoPlayer.onLogin(address); //We attempt to notify the MongoPlayer that the player has joined on this InetAddress
-        } catch (DatabaseConnectException | MongoException e) {
-            //But in the instance when we cannot, we log a severe error.
-            Core.getInstance().getLogger().severe("Could not read player from the database " + e.getMessage() + " - " + player.getName());
+            handedOff.get(PLAYER_WRITE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            Core.getInstance().getLogger().severe("Could not hand off player state in time - " + cMongoPlayer.getName());
+        }
+    }
+
+    @Override
+    public void playerPreLoginDenied(UUID uuid) {
+        this.prefetchedPlayers.remove(uuid);
+    }
+
+    private void expirePrefetchedPlayers() {
+        Iterator<PrefetchedPlayer> iterator = this.prefetchedPlayers.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired()) iterator.remove();
+        }
+    }
+
+    //Grabs the player we loaded during pre-login, or loads them now if we have nothing (such as a reload)
+    private COfflineMongoPlayer getPlayerForLogin(UUID uuid) throws CPlayerJoinException {
+        PrefetchedPlayer prefetchedPlayer = this.prefetchedPlayers.remove(uuid);
+        if (prefetchedPlayer != null && !prefetchedPlayer.isExpired()) return prefetchedPlayer.getPlayer();
+        awaitPlayerWrites(uuid);
+        try {
+            invalidateCachedPlayer(uuid);
+            return loadOfflinePlayerByUUID(uuid);
+        } catch (MongoException e) {
+            Core.getInstance().getLogger().severe("Could not read player from the database " + e.getMessage() + " - " + uuid);
             throw new CPlayerJoinException("Error while logging you in in the CPlayerManager " + e.getClass().getSimpleName() + " : " + e.getMessage() + "\nPlease contact a developer!");
         }
+    }
+
+    //Makes sure we don't read a player while the save from their last session is still going.
+    private void awaitPlayerWrites(UUID uuid) throws CPlayerJoinException {
+        try {
+            if (playerWriteLanes.awaitPending(uuid, PLAYER_WRITE_WAIT_MILLIS)) return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Core.getInstance().getLogger().severe("Timed out waiting for a player to finish saving - " + uuid);
+        throw new CPlayerJoinException("We are still saving your last session, please try again in a moment.");
+    }
+
+    //Saves a player on their own lane, so this save can't be overtaken by a later one or a load.
+    private void savePlayerInBackground(final COfflineMongoPlayer player) {
+        Runnable save = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    player.saveIntoDatabase();
+                } catch (DatabaseConnectException | MongoException e) {
+                    Core.getInstance().getLogger().severe("Could not save player into the database " + e.getMessage() + " - " + player.getName());
+                }
+            }
+        };
+        try {
+            playerWriteLanes.submit(player.getUniqueIdentifier(), save);
+        } catch (RejectedExecutionException e) {
+            //We're shutting down, so there's no background left to save in.
+            save.run();
+        }
+    }
+
+    private void recordIPInBackground(final UUID uuid, InetAddress address) {
+        final String ip = address.getHostAddress();
+        final Date seen = new Date();
+        try {
+            playerWriteLanes.submit(uuid, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        recordIPAccount(uuid, ip, seen);
+                    } catch (MongoException e) {
+                        Core.getInstance().getLogger().severe("Could not record IP address for player " + e.getMessage() + " - " + uuid);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ignored) {} //We're shutting down, and they'll be recorded next time they join.
+    }
+
+    @Override
+    public void playerLoggedIn(Player player, InetAddress address) throws CPlayerJoinException {
+        Lock lock = playerLocks.get(player.getUniqueId());
+        lock.lock();
+        try {
+            loginPlayer(player, address);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void loginPlayer(Player player, InetAddress address) throws CPlayerJoinException {
+        //Creates a new CMongoPlayer by passing the player, the offline player (for data), and this.
+        final CMongoPlayer cMongoPlayer = new CMongoPlayer(player, getPlayerForLogin(player.getUniqueId()), this);
+        this.onlinePlayerMap.put(player.getName(), cMongoPlayer);
+        cMongoPlayer.onLogin(address); //Notify the MongoPlayer that the player has joined on this InetAddress
+        //The login data is written in the background, the player has already been loaded.
+        savePlayerInBackground(cMongoPlayer);
+        recordIPInBackground(cMongoPlayer.getUniqueIdentifier(), address);
         for (CPlayerConnectionListener playerConnectionListener : playerConnectionListeners) {
             try {
                 playerConnectionListener.onPlayerLogin(cMongoPlayer, address);
@@ -141,46 +362,121 @@ public final class CMongoPlayerManager extends CMongoPlayerRepository implements
     }
 
     @Override
-    @Synchronized
-    public void deletePlayerRecords(COfflinePlayer player) throws IllegalArgumentException {
+    void onPermissionDataWritten(UUID uuid) {
+        broadcastInvalidation(DataInvalidationNetCommand.Type.PLAYER_CHANGED, uuid);
+    }
+
+    private void broadcastInvalidation(DataInvalidationNetCommand.Type type, UUID uuid) {
+        NetworkManager networkManager = Core.getNetworkManager();
+        //Nothing can be sent once we're shutting down, the other servers will read the player when they next log in.
+        if (networkManager == null || !Core.getInstance().isEnabled()) return;
+        networkManager.sendMassNetCommand(new DataInvalidationNetCommand(type, uuid.toString()));
+    }
+
+    @Override
+    public void deletePlayerRecords(final COfflinePlayer player) throws IllegalArgumentException {
         if (player instanceof CMongoPlayer || !(player instanceof COfflineMongoPlayer))
             throw new IllegalArgumentException("The argument you passed is not an instance of the correct object!");
-        super.deletePlayerRecords(player);
+        Runnable delete = new Runnable() {
+            @Override
+            public void run() {
+                Lock lock = playerLocks.get(player.getUniqueIdentifier());
+                lock.lock();
+                try {
+                    CMongoPlayerManager.super.deletePlayerRecords(player);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        };
+        //Deleting on the player's lane means any save already submitted for them is written first, instead of putting the player back after we've deleted them.
+        Future<?> deleted;
+        try {
+            deleted = playerWriteLanes.submit(player.getUniqueIdentifier(), delete);
+        } catch (RejectedExecutionException e) {
+            //We're shutting down, and every lane has already finished.
+            delete.run();
+            deleted = null;
+        }
+        if (deleted != null) {
+            try {
+                deleted.get(PLAYER_WRITE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                throw new IllegalStateException(e.getCause());
+            } catch (TimeoutException e) {
+                //It's still queued behind their saves, and will happen once they're done.
+                Core.getInstance().getLogger().severe("Timed out waiting for a player's saves to finish before deleting them - " + player.getUniqueIdentifier());
+            }
+        }
+        broadcastInvalidation(DataInvalidationNetCommand.Type.PLAYER_DELETED, player.getUniqueIdentifier());
     }
 
     @Override
     public void savePlayerData(COfflinePlayer player) throws DatabaseConnectException {
-        if (player instanceof CMongoPlayer) ((CMongoPlayer)player).updateForSaving();
+        updateForSaving(player);
         super.savePlayerData(player);
     }
 
     @Override
-    @Synchronized
-    public void playerLoggedOut(Player player) {
-        CMongoPlayer cPlayerForPlayer = getCPlayerForPlayer(player);
-        if (cPlayerForPlayer == null) return;
-        cPlayerForPlayer.updateForSaving();
-        for (CPlayerConnectionListener playerConnectionListener : playerConnectionListeners) {
-            try {playerConnectionListener.onPlayerDisconnect(cPlayerForPlayer);} catch (Exception e) {e.printStackTrace();}
+    public PlayerSaveReport savePlayerData(Collection<? extends COfflinePlayer> players, long timeoutMillis) {
+        for (COfflinePlayer player : players) {
+            updateForSaving(player);
         }
+        return super.savePlayerData(players, timeoutMillis);
+    }
+
+    //Only the time online is updated under the player's lock, the write itself never holds it.
+    private void updateForSaving(COfflinePlayer player) {
+        if (!(player instanceof CMongoPlayer)) return;
+        CMongoPlayer cMongoPlayer = (CMongoPlayer) player;
+        Lock lock = playerLocks.get(cMongoPlayer.getUniqueIdentifier());
+        lock.lock();
         try {
-            cPlayerForPlayer.saveIntoDatabase();
-        } catch (DatabaseConnectException | MongoException e) {
-            Core.getInstance().getLogger().severe("Could not save player into the database " + e.getMessage() + " - " + cPlayerForPlayer.getName());
+            //A player who has logged out since the save started already had their time counted when they left.
+            if (this.onlinePlayerMap.get(cMongoPlayer.getUsername()) == cMongoPlayer) cMongoPlayer.updateForSaving();
+        } finally {
+            lock.unlock();
         }
-        this.onlinePlayerMap.remove(player.getName());
+    }
+
+    @Override
+    public void playerLoggedOut(Player player) {
+        CMongoPlayer cPlayerForPlayer;
+        Lock lock = playerLocks.get(player.getUniqueId());
+        lock.lock();
+        try {
+            cPlayerForPlayer = getCPlayerForPlayer(player);
+            if (cPlayerForPlayer == null) return;
+            cPlayerForPlayer.updateForSaving();
+            for (CPlayerConnectionListener playerConnectionListener : playerConnectionListeners) {
+                try {playerConnectionListener.onPlayerDisconnect(cPlayerForPlayer);} catch (Exception e) {e.printStackTrace();}
+            }
+            this.onlinePlayerMap.remove(player.getName());
+            if (groupRepository != null) groupRepository.untrackOnlineMember(cPlayerForPlayer);
+        } finally {
+            lock.unlock();
+        }
+        //The quit save happens in the background, anyone loading this player waits for it to finish.
+        savePlayerInBackground(cPlayerForPlayer);
         if (Core.getNetworkManager() != null) Core.getNetworkManager().updateHeartbeat();
     }
 
     @Override
     public void onDisable() {
-        for (CPlayer onlinePlayer : getOnlinePlayers()) {
-            try {
-                onlinePlayer.saveIntoDatabase();
-            } catch (DatabaseConnectException | MongoException e) {
-                Core.getInstance().getLogger().severe("Could not save player into the database " + e.getMessage() + " - " + onlinePlayer.getName());
-            }
+        //Let any quit saves still going finish first, so they can't overwrite anything newer.
+        if (!playerWriteLanes.shutdown(SHUTDOWN_SAVE_TIMEOUT_MILLIS)) Core.getInstance().getLogger().severe("Ran out of time waiting for players to finish saving!");
+        PlayerSaveReport report = savePlayerData(getOnlinePlayers(), SHUTDOWN_SAVE_TIMEOUT_MILLIS);
+        for (Map.Entry<COfflinePlayer, String> failure : report.getFailedPlayers().entrySet()) {
+            Core.getInstance().getLogger().severe("Could not save player into the database " + failure.getValue() + " - " + failure.getKey().getName());
         }
+        if (report.isDeadlineExceeded()) Core.getInstance().getLogger().severe("Ran out of time saving players during shutdown!");
+        //Our permissibles belong to this plugin, so the players can't keep them once it's gone.
+        for (CPlayer cPlayer : getOnlinePlayers()) ((CMongoPlayer) cPlayer).uninjectPermissible();
+        //Anything that doesn't make it to the database in time is still in the journal for the next startup.
+        if (writeBehindQueue != null) writeBehindQueue.shutdown(SHUTDOWN_SAVE_TIMEOUT_MILLIS);
         this.database.disconnect();
     }
 
@@ -203,6 +499,16 @@ public final class CMongoPlayerManager extends CMongoPlayerRepository implements
         return geoIPManager;
     }
 
+    @Override
+    public void requestSave(COfflinePlayer player) {
+        saveTask.requestSave(player);
+    }
+
+    @Override
+    public LoginAdmissionController getLoginAdmissionController() {
+        return loginAdmissionController;
+    }
+
     @Override
     public GeoIPManager getGeoIPManager() {
         return geoIPManager;
@@ -213,4 +519,14 @@ public final class CMongoPlayerManager extends CMongoPlayerRepository implements
         //This needs to get all the online players as an iterator.
         return getOnlinePlayers().iterator();
     }
+
+    @Data
+    private static final class PrefetchedPlayer {
+        private final COfflineMongoPlayer player;
+        private final long loadedAt;
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - loadedAt > PREFETCH_EXPIRY_MILLIS;
+        }
+    }
 }
@@ -0,0 +1,103 @@
+package net.cogzmc.core.player.mongo;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import net.cogzmc.core.Core;
+import net.cogzmc.core.network.NetCommandHandler;
+import net.cogzmc.core.network.NetworkServer;
+import net.cogzmc.core.player.CPlayer;
+import net.cogzmc.core.player.DataInvalidationNetCommand;
+import net.cogzmc.core.util.Callback;
+import net.cogzmc.core.util.MainThread;
+import org.bson.types.ObjectId;
+
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Re-reads the single player or group another server told us about, instead of reloading every group and player.
+ */
+final class DataInvalidationNetCommandHandler implements NetCommandHandler<DataInvalidationNetCommand> {
+    private final CMongoDatabase database;
+    private final CMongoPermissionsManager permissionsManager;
+    private final CMongoPlayerManager playerManager;
+
+    DataInvalidationNetCommandHandler(CMongoDatabase database, CMongoPermissionsManager permissionsManager, CMongoPlayerManager playerManager) {
+        this.database = database;
+        this.permissionsManager = permissionsManager;
+        this.playerManager = playerManager;
+    }
+
+    @Override
+    public void handleNetCommand(NetworkServer sender, DataInvalidationNetCommand netCommand) {
+        if (sender.equals(Core.getNetworkManager().getThisServer())) return;
+        if (netCommand.getType() == null || netCommand.getId() == null) return;
+        try {
+            switch (netCommand.getType()) {
+                case PLAYER_CHANGED:
+                    refreshPlayer(UUID.fromString(netCommand.getId()));
+                    break;
+                case PLAYER_DELETED:
+                    playerManager.invalidateCachedPlayer(UUID.fromString(netCommand.getId()));
+                    break;
+                case GROUP_CHANGED:
+                case GROUP_DELETED:
+                    refreshGroup(new ObjectId(netCommand.getId()));
+                    break;
+            }
+        } catch (IllegalArgumentException e) {
+            Core.getInstance().getLogger().severe("Ignoring a bad invalidation from " + sender.getName() + ": " + netCommand);
+        }
+    }
+
+    private void refreshPlayer(UUID uuid) {
+        playerManager.invalidateCachedPlayer(uuid);
+        final CMongoPlayer player = getOnlinePlayer(uuid);
+        //Anyone who isn't online here will be read fresh the next time they're needed.
+        if (player == null) return;
+        MainThread.onComplete(database.supplyAsync(new Supplier<DBObject>() {
+            @Override
+            public DBObject get() {
+                return database.getCollection(MongoKey.USERS_COLLETION.toString()).findOne(new BasicDBObject(MongoKey.ID_KEY.toString(), player.getObjectId()));
+            }
+        }), new Callback<DBObject>() {
+            @Override
+            public void call(DBObject document) {
+                if (document != null && player.isOnline()) player.refreshPermissionDataFrom(document);
+            }
+        }, new Callback<Throwable>() {
+            @Override
+            public void call(Throwable throwable) {
+                Core.getInstance().getLogger().severe("Could not refresh the permissions of " + player.getUniqueIdentifier() + ": " + throwable.getMessage());
+            }
+        });
+    }
+
+    private void refreshGroup(final ObjectId groupId) {
+        MainThread.onComplete(database.supplyAsync(new Supplier<DBObject>() {
+            @Override
+            public DBObject get() {
+                return permissionsManager.getGroupDocument(groupId);
+            }
+        }), new Callback<DBObject>() {
+            @Override
+            public void call(DBObject document) {
+                //Only the group, what inherits from it, and the players using them are resolved again.
+                permissionsManager.replaceGroup(groupId, document);
+                permissionsManager.notifyObservers();
+            }
+        }, new Callback<Throwable>() {
+            @Override
+            public void call(Throwable throwable) {
+                Core.getInstance().getLogger().severe("Could not refresh group " + groupId + ": " + throwable.getMessage());
+            }
+        });
+    }
+
+    private CMongoPlayer getOnlinePlayer(UUID uuid) {
+        for (CPlayer cPlayer : playerManager.getOnlinePlayers()) {
+            if (cPlayer.getUniqueIdentifier().equals(uuid)) return (CMongoPlayer) cPlayer;
+        }
+        return null;
+    }
+}
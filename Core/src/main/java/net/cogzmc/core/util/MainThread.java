@@ -0,0 +1,43 @@
+package net.cogzmc.core.util;
+
+import net.cogzmc.core.Core;
+import org.bukkit.Bukkit;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+
+/**
+ * Gets the result of async work back onto the Bukkit main thread, where it is safe to touch players and worlds.
+ */
+public final class MainThread {
+    /**
+     * Calls one of the callbacks on the main thread once the future completes.
+     * @param future The future to wait for, such as one from {@link net.cogzmc.core.player.CPlayerRepository#getOfflinePlayerByUUIDAsync(java.util.UUID)}.
+     * @param onSuccess Called with the result if the future completes normally.
+     * @param onFailure Called with the cause if the future fails.
+     * @param <T> The type of the result.
+     */
+    public static <T> void onComplete(CompletableFuture<T> future, final Callback<T> onSuccess, final Callback<Throwable> onFailure) {
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(final T result, final Throwable throwable) {
+                final Throwable cause = unwrap(throwable);
+                Bukkit.getScheduler().runTask(Core.getInstance(), new Runnable() {
+                    @Override
+                    public void run() {
+                        if (cause == null) onSuccess.call(result);
+                        else onFailure.call(cause);
+                    }
+                });
+            }
+        });
+    }
+
+    //Futures wrap whatever went wrong when it passes through a stage, we want the original.
+    private static Throwable unwrap(Throwable throwable) {
+        while ((throwable instanceof CompletionException || throwable instanceof ExecutionException) && throwable.getCause() != null) throwable = throwable.getCause();
+        return throwable;
+    }
+}
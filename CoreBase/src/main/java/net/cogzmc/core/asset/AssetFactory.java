@@ -0,0 +1,19 @@
+package net.cogzmc.core.asset;
+
+import net.cogzmc.core.player.COfflinePlayer;
+
+import java.util.Map;
+
+/**
+ * Creates instances of an {@link net.cogzmc.core.asset.Asset} type when a player's assets are loaded. Register one using {@link net.cogzmc.core.asset.AssetRegistry#registerFactory(Class, AssetFactory)}.
+ */
+public interface AssetFactory {
+    /**
+     * Creates an asset from the data that was stored for it.
+     * @param player The {@link net.cogzmc.core.player.COfflinePlayer} who owns the asset.
+     * @param meta The meta variables that were stored with the asset.
+     * @return The {@link net.cogzmc.core.asset.Asset}.
+     * @throws ReflectiveOperationException If the asset could not be created.
+     */
+    Asset createAsset(COfflinePlayer player, Map<String, Object> meta) throws ReflectiveOperationException;
+}
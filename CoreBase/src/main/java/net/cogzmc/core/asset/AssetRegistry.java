@@ -0,0 +1,83 @@
+package net.cogzmc.core.asset;
+
+import net.cogzmc.core.player.COfflinePlayer;
+
+import java.lang.reflect.Constructor;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Knows how to create each type of {@link net.cogzmc.core.asset.Asset} from the class name that was stored with it.
+ *
+ * Asset types can register an {@link net.cogzmc.core.asset.AssetFactory}. Any type that hasn't is found by its class name the first time it is seen, and must have a
+ * constructor that takes a {@link net.cogzmc.core.player.COfflinePlayer} and a {@link java.util.Map}. Types we find this way are remembered until a plugin is enabled
+ * or disabled, since that can change which classes exist. Types we can't find are not remembered, so they are picked up as soon as their plugin is loaded.
+ */
+public final class AssetRegistry {
+    private static final Map<String, AssetFactory> registeredFactories = new ConcurrentHashMap<>();
+    //Found by class name, these hold on to the asset's class (and so the plugin that owns it) until they are forgotten.
+    private static final Map<String, AssetFactory> discoveredFactories = new ConcurrentHashMap<>();
+
+    private AssetRegistry() {}
+
+    public static void registerFactory(Class<? extends Asset> type, AssetFactory factory) {
+        registeredFactories.put(type.getName(), factory);
+    }
+
+    public static void unregisterFactory(Class<? extends Asset> type) {
+        registeredFactories.remove(type.getName());
+    }
+
+    /**
+     * Creates an asset using the factory for its type.
+     * @param fullyQualifiedClassName The name of the asset's class, as stored in the database.
+     * @param player The {@link net.cogzmc.core.player.COfflinePlayer} who owns the asset.
+     * @param meta The meta variables that were stored with the asset.
+     * @return The {@link net.cogzmc.core.asset.Asset}, or {@code null} if we don't know how to create this type.
+     * @throws ReflectiveOperationException If the factory failed to create the asset.
+     */
+    public static Asset createAsset(String fullyQualifiedClassName, COfflinePlayer player, Map<String, Object> meta) throws ReflectiveOperationException {
+        if (fullyQualifiedClassName == null) return null;
+        AssetFactory factory = registeredFactories.get(fullyQualifiedClassName);
+        if (factory == null) factory = discoveredFactories.get(fullyQualifiedClassName);
+        if (factory == null) {
+            factory = findFactory(fullyQualifiedClassName);
+            if (factory == null) return null;
+            discoveredFactories.put(fullyQualifiedClassName, factory);
+        }
+        return factory.createAsset(player, meta);
+    }
+
+    /**
+     * Forgets every asset type we found by class name, and any registered factory that belongs to the given class loader.
+     *
+     * This should be called whenever a plugin is enabled or disabled, with the disabled plugin's class loader, so that we don't keep a disabled plugin's classes loaded.
+     * @param classLoader The class loader of the plugin that was disabled, or {@code null} if a plugin was enabled.
+     */
+    public static void forgetFactories(ClassLoader classLoader) {
+        discoveredFactories.clear();
+        if (classLoader == null) return;
+        Iterator<AssetFactory> iterator = registeredFactories.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getClass().getClassLoader() == classLoader) iterator.remove();
+        }
+    }
+
+    private static AssetFactory findFactory(String fullyQualifiedClassName) {
+        final Constructor<? extends Asset> constructor;
+        try {
+            Class<?> assetClass = Class.forName(fullyQualifiedClassName);
+            if (!Asset.class.isAssignableFrom(assetClass)) return null;
+            constructor = assetClass.asSubclass(Asset.class).getConstructor(COfflinePlayer.class, Map.class);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            return null;
+        }
+        return new AssetFactory() {
+            @Override
+            public Asset createAsset(COfflinePlayer player, Map<String, Object> meta) throws ReflectiveOperationException {
+                return constructor.newInstance(player, meta);
+            }
+        };
+    }
+}
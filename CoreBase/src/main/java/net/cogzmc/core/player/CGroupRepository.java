@@ -1,6 +1,7 @@
 package net.cogzmc.core.player;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface CGroupRepository {
     /**
@@ -49,6 +50,20 @@ public interface CGroupRepository {
      */
     List<CGroup> getGroups();
 
+    /**
+     * Does the same as {@link #saveGroup(CGroup)} on a database thread.
+     * @param group The {@link net.cogzmc.core.player.CGroup} to save.
+     * @return A {@link java.util.concurrent.CompletableFuture} that completes once the group is saved.
+     */
+    CompletableFuture<Void> saveGroupAsync(CGroup group);
+
+    /**
+     * Does the same as {@link #deleteGroup(CGroup)} on a database thread.
+     * @param group The {@link net.cogzmc.core.player.CGroup} to remove.
+     * @return A {@link java.util.concurrent.CompletableFuture} that completes once the group and its memberships are removed.
+     */
+    CompletableFuture<Void> deleteGroupAsync(CGroup group);
+
     boolean isDefaultGroup(CGroup group);
 
     void reloadGroups();
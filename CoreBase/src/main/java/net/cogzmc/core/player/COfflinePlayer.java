@@ -68,8 +68,8 @@ public interface COfflinePlayer extends CPermissible {
     /**
      * Gets the value of a setting by key with a default value and type.
      * @param key The key that is used to uniquely identify the setting entry.
-     * @param type The type of the entry, this will force the entry to be cast to this type and return the default value if a {@link java.lang.ClassCastException} is caught.
-     * @param defaultValue The default value of this setting in the case it does not exist, or a {@link java.lang.ClassCastException} is caught.
+     * @param type The type of the entry. Numbers are converted to the numeric type asked for, and any other value that is not of this type returns the default value.
+     * @param defaultValue The default value of this setting in the case it does not exist, or is not of the type asked for.
      * @param <T> The type parameter for the setting.
      * @return The value of the setting as specified by the above parameters.
      */
@@ -104,6 +104,22 @@ public interface COfflinePlayer extends CPermissible {
      */
     boolean containsSetting(@NonNull String key);
 
+    /**
+     * Gets the value of a typed setting. Values are decoded once and kept, so this is cheap to call often.
+     * @param key The {@link net.cogzmc.core.player.SettingKey} of the setting.
+     * @param <T> The type of the setting's value.
+     * @return The value of the setting, or the key's default value if the player has never set it or it could not be decoded.
+     */
+    <T> T getSetting(@NonNull SettingKey<T> key);
+
+    /**
+     * Sets the value of a typed setting. Only this setting is written when the player is next saved.
+     * @param key The {@link net.cogzmc.core.player.SettingKey} of the setting.
+     * @param value The new value, or {@code null} to go back to the default value.
+     * @param <T> The type of the setting's value.
+     */
+    <T> void setSetting(@NonNull SettingKey<T> key, T value);
+
     /**
      * Grants a player an asset.
      * @param asset The asset to give the player.
@@ -118,7 +134,7 @@ public interface COfflinePlayer extends CPermissible {
 
     /**
      * Returns a list of all assets owned by a player.
-     * @return All the assets owned by a player
+     * @return All the assets owned by a player, which can't be changed. Use {@link #giveAsset(net.cogzmc.core.asset.Asset)} and {@link #removeAsset(net.cogzmc.core.asset.Asset)} instead.
      */
     Collection<Asset> getAssets();
 
@@ -1,17 +1,27 @@
 package net.cogzmc.core.player;
 
 import java.net.InetAddress;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public interface CPlayerRepository {
     /**
-     * Gets an offline player by searching through the database for anyone with a current-name as specified.
+     * Gets an offline player by searching through the database for anyone with a current-name as specified, ignoring case. If nobody currently has the name, anyone who has used it before is returned.
      * @param username The username you want to search for.
      * @return Any matching {@link net.cogzmc.core.player.COfflinePlayer} object or {@code null} if none is found.
      */
     List<COfflinePlayer> getOfflinePlayerByName(String username);
 
+    /**
+     * Gets offline players whose current name starts with the text specified, ignoring case.
+     * @param start The start of the name you want to search for.
+     * @param limit The most players to return.
+     * @return A {@link java.util.List} of matching {@link net.cogzmc.core.player.COfflinePlayer}s in alphabetical order, which is empty if there are none.
+     */
+    List<COfflinePlayer> getOfflinePlayersByStartOfName(String start, int limit);
+
     /**
      * Gets the offline player using their UUID to identify them.
      * @param uuid The {@link java.util.UUID} representing the UUID of the player.
@@ -21,11 +31,27 @@ public interface CPlayerRepository {
 
     /**
      * Gets {@link net.cogzmc.core.player.COfflinePlayer}s that match the {@link java.util.List} of {@link java.util.UUID}s that you passed.
+     *
+     * The players are loaded together rather than one at a time, so prefer this over calling {@link #getOfflinePlayerByUUID(java.util.UUID)} in a loop.
      * @param uuids The {@link java.util.UUID}s that you want to find the {@link net.cogzmc.core.player.COfflinePlayer}s for.
-     * @return A {@link java.util.List} of {@link net.cogzmc.core.player.COfflinePlayer}
+     * @return A {@link java.util.List} of {@link net.cogzmc.core.player.COfflinePlayer} in the same order as {@code uuids}. Any {@link java.util.UUID} that has never joined is left out, so the list may be shorter than {@code uuids}.
      */
     List<COfflinePlayer> getOfflinePlayersByUUIDS(List<UUID> uuids);
 
+    /**
+     * Gets a {@link net.cogzmc.core.player.PlayerSummary} for a player, which only loads their name and display details.
+     * @param uuid The {@link java.util.UUID} of the player.
+     * @return The {@link net.cogzmc.core.player.PlayerSummary} for this player, or {@code null} if they have never joined.
+     */
+    PlayerSummary getPlayerSummary(UUID uuid);
+
+    /**
+     * Gets {@link net.cogzmc.core.player.PlayerSummary}s for many players at once. This follows the same rules as {@link #getOfflinePlayersByUUIDS(java.util.List)}.
+     * @param uuids The {@link java.util.UUID}s of the players.
+     * @return A {@link java.util.List} of {@link net.cogzmc.core.player.PlayerSummary} in the same order as {@code uuids}, leaving out anyone who has never joined.
+     */
+    List<PlayerSummary> getPlayerSummaries(List<UUID> uuids);
+
     /**
      * Gets all players whom have connected via this IP address.
      * @param address The {@link java.net.InetAddress} to test.
@@ -33,6 +59,65 @@ public interface CPlayerRepository {
      */
     List<COfflinePlayer> getOfflinePlayersForIP(InetAddress address);
 
+    /**
+     * Gets the {@link java.util.UUID} of every player who has connected via this IP address, without loading any of them.
+     * @param address The {@link java.net.InetAddress} to test.
+     * @return A {@link java.util.List} of {@link java.util.UUID}s, most recently seen first.
+     */
+    List<UUID> getUUIDsForIP(InetAddress address);
+
+    /**
+     * Gets every IP address a player has connected from, without loading the player.
+     * @param uuid The {@link java.util.UUID} of the player.
+     * @return A {@link java.util.List} of IP addresses, most recently seen first.
+     */
+    List<String> getIPsForUUID(UUID uuid);
+
+    //Async variants. These run on a bounded pool of database threads, so callbacks on the returned futures do too.
+
+    /**
+     * Does the same as {@link #getOfflinePlayerByUUID(java.util.UUID)} without blocking.
+     * @param uuid The {@link java.util.UUID} of the player.
+     * @return A {@link java.util.concurrent.CompletableFuture} for the player.
+     */
+    CompletableFuture<COfflinePlayer> getOfflinePlayerByUUIDAsync(UUID uuid);
+
+    /**
+     * Does the same as {@link #getOfflinePlayersByUUIDS(java.util.List)} without blocking.
+     * @param uuids The {@link java.util.UUID}s of the players.
+     * @return A {@link java.util.concurrent.CompletableFuture} for the players, in the same order as {@code uuids}.
+     */
+    CompletableFuture<List<COfflinePlayer>> getOfflinePlayersByUUIDSAsync(List<UUID> uuids);
+
+    /**
+     * Does the same as {@link #getOfflinePlayerByName(String)} without blocking.
+     * @param username The username to search for.
+     * @return A {@link java.util.concurrent.CompletableFuture} for the players who have used this name.
+     */
+    CompletableFuture<List<COfflinePlayer>> getOfflinePlayerByNameAsync(String username);
+
+    /**
+     * Does the same as {@link #getOfflinePlayersByStartOfName(String, int)} without blocking.
+     * @param start The start of the name.
+     * @param limit The most players to return.
+     * @return A {@link java.util.concurrent.CompletableFuture} for the players whose name starts with {@code start}.
+     */
+    CompletableFuture<List<COfflinePlayer>> getOfflinePlayersByStartOfNameAsync(String start, int limit);
+
+    /**
+     * Does the same as {@link #savePlayerData(COfflinePlayer)} without blocking.
+     * @param player The player to save.
+     * @return A {@link java.util.concurrent.CompletableFuture} that completes once the player is saved, or fails with the reason they could not be.
+     */
+    CompletableFuture<Void> savePlayerDataAsync(COfflinePlayer player);
+
+    /**
+     * Does the same as {@link #deletePlayerRecords(COfflinePlayer)} without blocking.
+     * @param player The player to delete.
+     * @return A {@link java.util.concurrent.CompletableFuture} that completes once the player is deleted.
+     */
+    CompletableFuture<Void> deletePlayerRecordsAsync(COfflinePlayer player);
+
     /**
      * Saves a player's data into the database, the exact process of this depends very much on the implementation of this class that you're using.
      * @param player The {@link net.cogzmc.core.player.COfflinePlayer} that you wish to save into the database.
@@ -40,6 +125,21 @@ public interface CPlayerRepository {
      */
     void savePlayerData(COfflinePlayer player) throws DatabaseConnectException;
 
+    /**
+     * Saves many players into the database at once. Players are grouped into batches, and a player who fails to save will not stop the rest of their batch from saving.
+     * @param players The {@link net.cogzmc.core.player.COfflinePlayer}s that you wish to save into the database.
+     * @return A {@link net.cogzmc.core.player.PlayerSaveReport} describing which players saved and which did not.
+     */
+    PlayerSaveReport savePlayerData(Collection<? extends COfflinePlayer> players);
+
+    /**
+     * Saves many players into the database at once, but will not start any new batch once {@code timeoutMillis} has passed. Anyone who has not been saved by then is reported as failed.
+     * @param players The {@link net.cogzmc.core.player.COfflinePlayer}s that you wish to save into the database.
+     * @param timeoutMillis The time in milliseconds that we have to save the players, or a negative number for no limit.
+     * @return A {@link net.cogzmc.core.player.PlayerSaveReport} describing which players saved and which did not.
+     */
+    PlayerSaveReport savePlayerData(Collection<? extends COfflinePlayer> players, long timeoutMillis);
+
     /**
      * <b>THIS METHOD IS POTENTIALLY DESTRUCTIVE. USE AT YOUR OWN RISK</b>
      *
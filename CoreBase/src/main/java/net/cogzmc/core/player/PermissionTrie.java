@@ -0,0 +1,146 @@
+package net.cogzmc.core.player;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable, compiled form of a resolved permission map (such as {@link net.cogzmc.core.player.CPermissible#getAllPermissions()}) used to answer permission checks.
+ *
+ * Permissions are split on {@code .} into one node per segment, and a {@code *} segment applies to everything below the node it is under, so {@code core.*} covers
+ * {@code core.chat} and {@code core.chat.color} but not {@code core} itself. The most specific entry always wins, which means an explicit {@code false} is never
+ * overridden by a wildcard above it, and {@code core.chat.*: false} beats {@code core.*: true} for anything under {@code core.chat}.
+ *
+ * Checks are case insensitive like Bukkit's, cost one step per segment, and don't allocate anything. Permissions that resolve to {@code false} are remembered, so
+ * repeatedly checking for something we don't have (which is most checks) is a single lookup.
+ */
+public final class PermissionTrie {
+    public static final PermissionTrie EMPTY = compile(Collections.<String, Boolean>emptyMap());
+
+    private static final byte UNSET = 0, ALLOW = 1, DENY = 2;
+    private static final String WILDCARD = "*";
+    //Stops a plugin checking made up permissions from growing the remembered denials forever.
+    private static final int MAXIMUM_REMEMBERED_DENIALS = 2048;
+
+    private final Node root;
+    private final Set<String> rememberedDenials = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private PermissionTrie(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Compiles a permission map into a trie.
+     * @param permissions The permissions, which are copied, so later changes to the map are not seen by the trie.
+     * @return The compiled {@link net.cogzmc.core.player.PermissionTrie}.
+     */
+    public static PermissionTrie compile(Map<String, Boolean> permissions) {
+        NodeBuilder root = new NodeBuilder();
+        for (Map.Entry<String, Boolean> permission : permissions.entrySet()) {
+            if (permission.getKey() == null || permission.getValue() == null || permission.getKey().isEmpty()) continue;
+            NodeBuilder node = root;
+            for (String segment : permission.getKey().toLowerCase(Locale.ENGLISH).split("\\.", -1)) {
+                NodeBuilder child = node.children.get(segment);
+                if (child == null) node.children.put(segment, child = new NodeBuilder());
+                node = child;
+            }
+            node.value = permission.getValue() ? ALLOW : DENY;
+        }
+        return new PermissionTrie(root.build());
+    }
+
+    /**
+     * Checks a permission.
+     * @param permission The permission to check, such as {@code core.chat.color}.
+     * @return {@code true} if the permission, or a wildcard covering it, is granted and not denied by anything more specific.
+     */
+    public boolean has(String permission) {
+        if (permission == null) return false;
+        if (rememberedDenials.contains(permission)) return false;
+        if (resolve(permission) == ALLOW) return true;
+        if (rememberedDenials.size() < MAXIMUM_REMEMBERED_DENIALS) rememberedDenials.add(permission);
+        return false;
+    }
+
+    /**
+     * Gets the value of a permission, telling apart a denied permission and one that was never given a value.
+     * @param permission The permission to check.
+     * @return The value of the permission (or the wildcard covering it), or {@code null} if neither has been given a value.
+     */
+    public Boolean getValue(String permission) {
+        if (permission == null) return null;
+        byte value = resolve(permission);
+        return value == UNSET ? null : value == ALLOW;
+    }
+
+    private byte resolve(String permission) {
+        Node node = root;
+        byte inherited = UNSET;
+        int start = 0, length = permission.length();
+        while (true) {
+            //A wildcard here covers every segment after this one, and anything deeper that matches replaces it.
+            if (node.wildcard != UNSET) inherited = node.wildcard;
+            int end = permission.indexOf('.', start);
+            if (end == -1) end = length;
+            Node child = node.getChild(permission, start, end);
+            if (child == null) return inherited;
+            if (end == length) return child.value == UNSET ? inherited : child.value;
+            node = child;
+            start = end + 1;
+        }
+    }
+
+    private static final class Node {
+        //Sorted, so that a child can be found with a binary search over the segment instead of building a string for it.
+        private final String[] segments;
+        private final Node[] children;
+        private final byte value;
+        private final byte wildcard;
+
+        private Node(String[] segments, Node[] children, byte value, byte wildcard) {
+            this.segments = segments;
+            this.children = children;
+            this.value = value;
+            this.wildcard = wildcard;
+        }
+
+        private Node getChild(String permission, int start, int end) {
+            int low = 0, high = segments.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = compareSegment(segments[middle], permission, start, end);
+                if (comparison < 0) low = middle + 1;
+                else if (comparison > 0) high = middle - 1;
+                else return children[middle];
+            }
+            return null;
+        }
+
+        //Compares the same way String#compareTo does on the lowercased segment.
+        private static int compareSegment(String segment, String permission, int start, int end) {
+            int length = end - start, shortest = Math.min(segment.length(), length);
+            for (int i = 0; i < shortest; i++) {
+                char a = segment.charAt(i), b = Character.toLowerCase(permission.charAt(start + i));
+                if (a != b) return a - b;
+            }
+            return segment.length() - length;
+        }
+    }
+
+    private static final class NodeBuilder {
+        private final SortedMap<String, NodeBuilder> children = new TreeMap<>();
+        private byte value = UNSET;
+
+        private Node build() {
+            String[] segments = new String[children.size()];
+            Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<String, NodeBuilder> child : children.entrySet()) {
+                segments[i] = child.getKey();
+                nodes[i] = child.getValue().build();
+                i++;
+            }
+            NodeBuilder wildcard = children.get(WILDCARD);
+            return new Node(segments, nodes, value, wildcard == null ? UNSET : wildcard.value);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package net.cogzmc.core.player;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes the outcome of saving many players at once using {@link net.cogzmc.core.player.CPlayerRepository#savePlayerData(java.util.Collection, long)}.
+ *
+ * A player failing to save does not fail the other players in the same batch, so every player ends up either saved, unchanged, or failed.
+ */
+@Data
+public final class PlayerSaveReport {
+    private final List<COfflinePlayer> savedPlayers = new ArrayList<>();
+    private final Map<COfflinePlayer, String> failedPlayers = new LinkedHashMap<>();
+    private int unchangedPlayers;
+    private int batches;
+    private int failedBatches;
+    private boolean deadlineExceeded;
+
+    /**
+     * Checks if every player was either saved or had nothing to save.
+     * @return {@code true} if nobody failed to save.
+     */
+    public boolean isSuccessful() {
+        return failedPlayers.isEmpty();
+    }
+}
@@ -0,0 +1,33 @@
+package net.cogzmc.core.player;
+
+import lombok.Data;
+
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * A read-only snapshot of who a player is and how their name is displayed, without any of their settings, assets, or permissions.
+ *
+ * These are much cheaper to load than a {@link net.cogzmc.core.player.COfflinePlayer}, so use them when all you need is to print a name.
+ */
+@Data
+public final class PlayerSummary {
+    private final UUID uniqueIdentifier;
+    private final String name;
+    private final String displayName;
+    private final String chatColor;
+    private final String chatPrefix;
+    private final String chatSuffix;
+    private final String tablistColor;
+    private final Date lastTimeOnline;
+
+    /**
+     * Creates a summary of a player that has already been loaded.
+     * @param player The {@link net.cogzmc.core.player.COfflinePlayer} to summarize.
+     * @return A {@link net.cogzmc.core.player.PlayerSummary} with the player's current values.
+     */
+    public static PlayerSummary of(COfflinePlayer player) {
+        return new PlayerSummary(player.getUniqueIdentifier(), player.getName(), player.getDisplayName(), player.getChatColor(),
+                player.getChatPrefix(), player.getChatSuffix(), player.getTablistColor(), player.getLastTimeOnline());
+    }
+}
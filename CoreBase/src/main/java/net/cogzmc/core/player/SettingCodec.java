@@ -0,0 +1,24 @@
+package net.cogzmc.core.player;
+
+/**
+ * Converts the value of a {@link net.cogzmc.core.player.SettingKey} to and from the form it is stored in.
+ *
+ * Stored forms should be simple values that the database understands directly, such as numbers, strings, and booleans.
+ * @param <T> The type of the decoded value.
+ */
+public interface SettingCodec<T> {
+    /**
+     * Converts a value into the form it is stored in.
+     * @param value The value, which is never {@code null}.
+     * @return The stored form of the value.
+     */
+    Object encode(T value);
+
+    /**
+     * Converts a stored value back into its decoded form.
+     * @param stored The stored form of the value, which is never {@code null}.
+     * @return The decoded value.
+     * @throws IllegalArgumentException If the stored value is not something this codec can decode.
+     */
+    T decode(Object stored) throws IllegalArgumentException;
+}
@@ -0,0 +1,101 @@
+package net.cogzmc.core.player;
+
+/**
+ * The {@link net.cogzmc.core.player.SettingCodec}s for the types most settings use.
+ */
+public final class SettingCodecs {
+    public static final SettingCodec<Boolean> BOOLEAN = new SettingCodec<Boolean>() {
+        @Override
+        public Object encode(Boolean value) {
+            return value;
+        }
+
+        @Override
+        public Boolean decode(Object stored) {
+            if (stored instanceof Boolean) return (Boolean) stored;
+            if (stored instanceof String) return Boolean.parseBoolean((String) stored);
+            throw new IllegalArgumentException("Expected a boolean but found " + stored);
+        }
+    };
+
+    public static final SettingCodec<Integer> INTEGER = new SettingCodec<Integer>() {
+        @Override
+        public Object encode(Integer value) {
+            return value;
+        }
+
+        @Override
+        public Integer decode(Object stored) {
+            return toNumber(stored).intValue();
+        }
+    };
+
+    public static final SettingCodec<Long> LONG = new SettingCodec<Long>() {
+        @Override
+        public Object encode(Long value) {
+            return value;
+        }
+
+        @Override
+        public Long decode(Object stored) {
+            return toNumber(stored).longValue();
+        }
+    };
+
+    public static final SettingCodec<Double> DOUBLE = new SettingCodec<Double>() {
+        @Override
+        public Object encode(Double value) {
+            return value;
+        }
+
+        @Override
+        public Double decode(Object stored) {
+            return toNumber(stored).doubleValue();
+        }
+    };
+
+    public static final SettingCodec<String> STRING = new SettingCodec<String>() {
+        @Override
+        public Object encode(String value) {
+            return value;
+        }
+
+        @Override
+        public String decode(Object stored) {
+            return stored.toString();
+        }
+    };
+
+    /**
+     * Gets a codec that stores an enum constant by its name.
+     * @param type The enum class.
+     * @param <E> The enum type.
+     * @return A {@link net.cogzmc.core.player.SettingCodec} for the enum.
+     */
+    public static <E extends Enum<E>> SettingCodec<E> forEnum(final Class<E> type) {
+        return new SettingCodec<E>() {
+            @Override
+            public Object encode(E value) {
+                return value.name();
+            }
+
+            @Override
+            public E decode(Object stored) {
+                return Enum.valueOf(type, stored.toString());
+            }
+        };
+    }
+
+    //Mongo hands numbers back as whichever type it stored them as, which isn't always the type we wrote.
+    private static Number toNumber(Object stored) {
+        if (stored instanceof Number) return (Number) stored;
+        if (stored instanceof String) {
+            try {
+                return Double.parseDouble((String) stored);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected a number but found " + stored, e);
+            }
+        }
+        throw new IllegalArgumentException("Expected a number but found " + stored);
+    }
+}
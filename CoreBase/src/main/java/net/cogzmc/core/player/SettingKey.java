@@ -0,0 +1,73 @@
+package net.cogzmc.core.player;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A typed player setting, which knows how to store its value and what its value is when a player has never set it.
+ *
+ * Keys are registered once (usually as a constant in the plugin that owns the setting) using {@link #register(String, SettingCodec, Object)}, and then used with
+ * {@link net.cogzmc.core.player.COfflinePlayer#getSetting(SettingKey)} and {@link net.cogzmc.core.player.COfflinePlayer#setSetting(SettingKey, Object)}.
+ * Changing a setting only writes that setting, not the rest of the player.
+ * @param <T> The type of the setting's value.
+ */
+@EqualsAndHashCode(of = {"name"})
+@ToString(of = {"name"})
+public final class SettingKey<T> {
+    private static final Map<String, SettingKey<?>> registeredKeys = new HashMap<>();
+
+    @Getter private final String name;
+    @Getter private final SettingCodec<T> codec;
+    @Getter private final T defaultValue;
+
+    private SettingKey(String name, SettingCodec<T> codec, T defaultValue) {
+        this.name = name;
+        this.codec = codec;
+        this.defaultValue = defaultValue;
+    }
+
+    /**
+     * Registers a new setting.
+     * @param name The name the setting is stored under. This may not contain a {@code .} or start with a {@code $}.
+     * @param codec The {@link net.cogzmc.core.player.SettingCodec} used to store the value, such as one from {@link net.cogzmc.core.player.SettingCodecs}.
+     * @param defaultValue The value of the setting for players who have never set it, which may be {@code null}.
+     * @param <T> The type of the setting's value.
+     * @return The {@link net.cogzmc.core.player.SettingKey}.
+     * @throws IllegalStateException If a setting has already been registered with this name.
+     */
+    public static <T> SettingKey<T> register(@NonNull String name, @NonNull SettingCodec<T> codec, T defaultValue) {
+        if (name.contains(".") || name.startsWith("$")) throw new IllegalArgumentException("Setting names may not contain a . or start with a $!");
+        synchronized (registeredKeys) {
+            if (registeredKeys.containsKey(name)) throw new IllegalStateException("A setting named " + name + " is already registered!");
+            SettingKey<T> key = new SettingKey<>(name, codec, defaultValue);
+            registeredKeys.put(name, key);
+            return key;
+        }
+    }
+
+    /**
+     * Gets a setting that has been registered.
+     * @param name The name of the setting.
+     * @return The {@link net.cogzmc.core.player.SettingKey}, or {@code null} if nothing has been registered with this name.
+     */
+    public static SettingKey<?> getRegisteredKey(String name) {
+        synchronized (registeredKeys) {
+            return registeredKeys.get(name);
+        }
+    }
+
+    /**
+     * Removes a setting, such as when the plugin that registered it is disabled. Stored values are not touched.
+     * @param key The key to unregister.
+     */
+    public static void unregister(SettingKey<?> key) {
+        synchronized (registeredKeys) {
+            if (registeredKeys.get(key.getName()) == key) registeredKeys.remove(key.getName());
+        }
+    }
+}
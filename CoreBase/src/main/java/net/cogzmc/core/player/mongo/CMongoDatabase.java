@@ -7,9 +7,16 @@ import net.cogzmc.core.player.CDatabase;
 import net.cogzmc.core.player.DatabaseConnectException;
 
 import java.net.UnknownHostException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 @Data
 public final class CMongoDatabase implements CDatabase {
+    //The async repository methods run on these threads, so that a burst of lookups can't tie up every thread on the server.
+    private static final int IO_THREADS = 4;
+    private static final int IO_QUEUE_CAPACITY = 1000;
+
     private final MongoClientURI uri;
 
     private final String database;
@@ -17,6 +24,9 @@ public final class CMongoDatabase implements CDatabase {
 
     @Getter private DB mongoDatabase;
     @Getter private MongoClient client;
+    @Getter private final MongoIndexManager indexManager = new MongoIndexManager(this);
+    @Getter private final MongoSchemaMigrator schemaMigrator = new MongoSchemaMigrator(this);
+    @Getter private final ExecutorService ioExecutor = createIOExecutor();
 
     public CMongoDatabase(String host, Integer port, String database, String username, String password, String collectionPrefix) {
         if (password != null && username != null) {
@@ -41,6 +51,8 @@ public final class CMongoDatabase implements CDatabase {
 
     @Override
     public void disconnect() {
+        schemaMigrator.shutdown();
+        ioExecutor.shutdown();
         if (this.mongoDatabase != null) this.mongoDatabase = null; //Memory management FTW
         if (this.client != null) {
             this.client.close();
@@ -48,6 +60,37 @@ public final class CMongoDatabase implements CDatabase {
         }
     }
 
+    /**
+     * Runs some database work on the IO executor.
+     * @param supplier The work to do.
+     * @param <T> The type of the result.
+     * @return A {@link java.util.concurrent.CompletableFuture} for the result, which fails if the work throws or the executor is full.
+     */
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, ioExecutor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    private static ExecutorService createIOExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(IO_QUEUE_CAPACITY), new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Core Database IO #" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     public DBCollection getCollection(String name) {
         return mongoDatabase.getCollection((collectionPrefix == null ? "" : collectionPrefix) + name);
     }
@@ -1,12 +1,12 @@
 package net.cogzmc.core.player.mongo;
 
-import com.google.common.base.Joiner;
 import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObjectBuilder;
 import com.mongodb.DBObject;
 import lombok.*;
 import net.cogzmc.core.player.CGroup;
 import net.cogzmc.core.player.CGroupRepository;
+import net.cogzmc.core.player.PermissionTrie;
 import org.bson.types.ObjectId;
 
 import java.util.*;
@@ -32,7 +32,11 @@ final class CMongoGroup implements CGroup {
     @NonNull private String chatPrefix;
     @NonNull private String chatSuffix;
     @Setter(AccessLevel.NONE) private Map<String, Boolean> allPermissions;
+    //Built from allPermissions every time they're resolved, this is what answers hasPermission.
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) private PermissionTrie permissionTrie;
     private Integer priority = 0;
+    //Changes every time the group is saved, so that other servers can tell if their copy is the one in the database.
+    private ObjectId revision;
 
     @Override
     public void setPermission(String permission, Boolean value) {
@@ -48,11 +52,8 @@ final class CMongoGroup implements CGroup {
 
     @Override
     public boolean hasPermission(String permission) {
-        if (allPermissions.containsKey(permission) && allPermissions.get(permission))
-            return true;
-        //wildcard support
-        String[] parts = permission.split(".");
-        return parts.length > 1 && hasPermission(Joiner.on('.').join(Arrays.copyOfRange(parts, 0, parts.length - 2)) + ".*");
+        ensureLoaded();
+        return permissionTrie.has(permission);
     }
 
     @Override
@@ -68,6 +69,7 @@ final class CMongoGroup implements CGroup {
     DBObject getDBObject() {
         BasicDBObjectBuilder builder = new BasicDBObjectBuilder();
         builder.add(MongoKey.GROUPS_NAME_KEY.toString(), name);
+        builder.add(MongoKey.SCHEMA_VERSION_KEY.toString(), MongoSchemaMigrator.SCHEMA_VERSION);
         if (objectId != null) builder.add(MongoKey.ID_KEY.toString(), objectId);
         combineObjectBuilders(builder, getObjectForPermissible(this)); //Does all the permissible stuff.
         BasicDBList parentList = new BasicDBList();
@@ -83,7 +85,14 @@ final class CMongoGroup implements CGroup {
 
     @Override
     public void reloadPermissions() {
-        allPermissions = new HashMap<>(declaredPermissions);
+        //Anything inheriting from us, and anyone in us, has to be resolved again as well.
+        if (objectId != null && repository.getGroupByObjectId(objectId) == this) repository.recomputeFrom(objectId);
+        else resolvePermissions();
+    }
+
+    //Resolves only this group, from parents that have already been resolved.
+    void resolvePermissions() {
+        Map<String, Boolean> allPermissions = new HashMap<>(declaredPermissions);
 
         parents.clear();
         for (ObjectId parentId : parentIds) {
@@ -95,7 +104,8 @@ final class CMongoGroup implements CGroup {
         Collections.sort(parents, new Comparator<CGroup>() {
             @Override
             public int compare(CGroup o1, CGroup o2) {
-                return o1.getPriority()-o2.getPriority(); //Sort by priority.
+                int priorities = Integer.compare(o1.getPriority(), o2.getPriority()); //Sort by priority,
+                return priorities != 0 ? priorities : o1.getName().compareToIgnoreCase(o2.getName()); //and then name so that equal priorities always end up in the same order.
             }
         }); //Sort the parents in order so that we end up going through the parents in the right order.
         //For every parent
@@ -118,6 +128,8 @@ final class CMongoGroup implements CGroup {
                 }
             }
         }
+        this.allPermissions = allPermissions;
+        permissionTrie = PermissionTrie.compile(allPermissions);
     }
 
     @Override
@@ -126,7 +138,7 @@ final class CMongoGroup implements CGroup {
         checkForRecursiveParenthood(group);
         this.parents.add(group);
         this.parentIds.add(((CMongoGroup) group).getObjectId());
-        reloadPermissions();
+        repository.onParentsChanged(this);
     }
 
     void checkForRecursiveParenthood(CGroup group) {
@@ -140,7 +152,8 @@ final class CMongoGroup implements CGroup {
     public void removeParent(CGroup group) {
         if (group == this || group.getName().equals(getName())) throw new IllegalStateException("You cannot make this group parent itself!");
         this.parents.remove(group);
-        reloadPermissions();
+        this.parentIds.remove(((CMongoGroup) group).getObjectId());
+        repository.onParentsChanged(this);
     }
 
     @Override
@@ -156,6 +169,6 @@ final class CMongoGroup implements CGroup {
 
     @Override
     public void ensureLoaded() {
-        if (allPermissions == null) reloadPermissions();
+        if (allPermissions == null) resolvePermissions();
     }
 }
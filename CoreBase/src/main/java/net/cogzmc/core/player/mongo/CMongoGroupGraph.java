@@ -0,0 +1,147 @@
+package net.cogzmc.core.player.mongo;
+
+import org.bson.types.ObjectId;
+
+import java.util.*;
+
+/**
+ * An immutable index of the groups, by {@link org.bson.types.ObjectId} and lowercase name, along with the parent to child edges between them.
+ *
+ * The groups are kept in topological order (every group comes after all of its parents), with ties broken by name, so resolving permissions in this order
+ * always sees a parent's permissions before its children need them, and the order is the same on every server. Groups caught in a parent loop are put
+ * at the end, in name order.
+ */
+final class CMongoGroupGraph {
+    static final CMongoGroupGraph EMPTY = new CMongoGroupGraph(Collections.<CMongoGroup>emptyList());
+
+    private static final Comparator<CMongoGroup> NAME_ORDER = new Comparator<CMongoGroup>() {
+        @Override
+        public int compare(CMongoGroup o1, CMongoGroup o2) {
+            int names = o1.getName().toLowerCase().compareTo(o2.getName().toLowerCase());
+            if (names != 0) return names;
+            return o1.getObjectId().compareTo(o2.getObjectId());
+        }
+    };
+
+    private final Map<ObjectId, CMongoGroup> groupsById = new HashMap<>();
+    private final Map<String, CMongoGroup> groupsByName = new HashMap<>();
+    private final Map<ObjectId, List<CMongoGroup>> children = new HashMap<>();
+    private final List<CMongoGroup> order;
+
+    CMongoGroupGraph(Collection<CMongoGroup> groups) {
+        for (CMongoGroup group : groups) {
+            if (group.getObjectId() == null) continue;
+            groupsById.put(group.getObjectId(), group);
+            groupsByName.put(group.getName().toLowerCase(), group);
+        }
+        Map<ObjectId, Integer> unresolvedParents = new HashMap<>();
+        for (CMongoGroup group : groupsById.values()) {
+            int parents = 0;
+            for (ObjectId parentId : new HashSet<>(group.getParentIds())) {
+                if (!groupsById.containsKey(parentId) || parentId.equals(group.getObjectId())) continue;
+                List<CMongoGroup> children1 = children.get(parentId);
+                if (children1 == null) children.put(parentId, children1 = new ArrayList<>());
+                children1.add(group);
+                parents++;
+            }
+            unresolvedParents.put(group.getObjectId(), parents);
+        }
+        //Kahn's algorithm, always taking the first group by name out of the ones that are ready.
+        List<CMongoGroup> order = new ArrayList<>(groupsById.size());
+        PriorityQueue<CMongoGroup> ready = new PriorityQueue<>(Math.max(1, groupsById.size()), NAME_ORDER);
+        for (CMongoGroup group : groupsById.values()) {
+            if (unresolvedParents.get(group.getObjectId()) == 0) ready.add(group);
+        }
+        while (!ready.isEmpty()) {
+            CMongoGroup group = ready.poll();
+            order.add(group);
+            for (CMongoGroup child : getChildren(group.getObjectId())) {
+                int remaining = unresolvedParents.get(child.getObjectId()) - 1;
+                unresolvedParents.put(child.getObjectId(), remaining);
+                if (remaining == 0) ready.add(child);
+            }
+        }
+        if (order.size() < groupsById.size()) {
+            List<CMongoGroup> cyclic = new ArrayList<>();
+            for (CMongoGroup group : groupsById.values()) {
+                if (unresolvedParents.get(group.getObjectId()) > 0) cyclic.add(group);
+            }
+            Collections.sort(cyclic, NAME_ORDER);
+            order.addAll(cyclic);
+        }
+        this.order = Collections.unmodifiableList(order);
+    }
+
+    CMongoGroup getById(ObjectId id) {
+        return id == null ? null : groupsById.get(id);
+    }
+
+    CMongoGroup getByName(String name) {
+        return groupsByName.get(name.toLowerCase());
+    }
+
+    /**
+     * Gets every group, parents before children.
+     * @return An unmodifiable list of the groups.
+     */
+    List<CMongoGroup> getOrder() {
+        return order;
+    }
+
+    /**
+     * Gets a group and everything that inherits from it, parents before children.
+     * @param id The {@link org.bson.types.ObjectId} of the group, which may no longer be in the graph.
+     * @return The group (if it's still here) and its descendants.
+     */
+    List<CMongoGroup> getSelfAndDescendants(ObjectId id) {
+        Set<ObjectId> affected = new HashSet<>();
+        Deque<ObjectId> toVisit = new ArrayDeque<>();
+        toVisit.add(id);
+        affected.add(id);
+        while (!toVisit.isEmpty()) {
+            for (CMongoGroup child : getChildren(toVisit.poll())) {
+                if (affected.add(child.getObjectId())) toVisit.add(child.getObjectId());
+            }
+        }
+        List<CMongoGroup> groups = new ArrayList<>(affected.size());
+        for (CMongoGroup group : order) {
+            if (affected.contains(group.getObjectId())) groups.add(group);
+        }
+        return groups;
+    }
+
+    /**
+     * Makes a new graph with a group added, or put in place of the group with the same {@link org.bson.types.ObjectId}.
+     * @param group The group.
+     * @return The new graph.
+     */
+    CMongoGroupGraph with(CMongoGroup group) {
+        Map<ObjectId, CMongoGroup> groups = new HashMap<>(groupsById);
+        groups.put(group.getObjectId(), group);
+        return new CMongoGroupGraph(groups.values());
+    }
+
+    /**
+     * Makes a new graph without a group.
+     * @param id The {@link org.bson.types.ObjectId} of the group.
+     * @return The new graph.
+     */
+    CMongoGroupGraph without(ObjectId id) {
+        Map<ObjectId, CMongoGroup> groups = new HashMap<>(groupsById);
+        groups.remove(id);
+        return new CMongoGroupGraph(groups.values());
+    }
+
+    /**
+     * Makes a new graph from the same groups, for when a group's parents have changed.
+     * @return The new graph.
+     */
+    CMongoGroupGraph rebuild() {
+        return new CMongoGroupGraph(groupsById.values());
+    }
+
+    private List<CMongoGroup> getChildren(ObjectId id) {
+        List<CMongoGroup> children1 = children.get(id);
+        return children1 == null ? Collections.<CMongoGroup>emptyList() : children1;
+    }
+}
@@ -6,6 +6,11 @@ import net.cogzmc.core.player.*;
 import org.bson.types.ObjectId;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
 
 import static net.cogzmc.core.player.mongo.MongoUtils.getListFor;
 import static net.cogzmc.core.player.mongo.MongoUtils.getPermissibileDataFor;
@@ -17,7 +22,14 @@ public class CMongoGroupRepository implements CGroupRepository {
 
     @Getter private CGroup defaultGroup;
     private final CMongoPlayerRepository playerRepository;
-    private Map<String, CMongoGroup> groups;
+    //Replaced as a whole whenever a group is added, removed, or changes parents, so it can be read from any thread.
+    private volatile CMongoGroupGraph graph = CMongoGroupGraph.EMPTY;
+    //Online players by the groups their permissions come from, the default group for players who aren't in any.
+    private final ConcurrentMap<ObjectId, Set<COfflineMongoPlayer>> onlineMembers = new ConcurrentHashMap<>();
+    //The groups revision counter as of when we last compared our groups to the database.
+    private volatile long seenRevision = -1;
+    //Players in the same groups share what those groups resolve to.
+    private final ResolvedPermissionsCache resolvedPermissions = new ResolvedPermissionsCache();
 
     public CMongoGroupRepository(CMongoDatabase database, CMongoPlayerRepository playerRepository) {
         this.database = database;
@@ -31,13 +43,14 @@ public class CMongoGroupRepository implements CGroupRepository {
         CMongoGroup group =
                 new CMongoGroup(name, this, new HashMap<String, Boolean>(), new ArrayList<ObjectId>(), DEFAULT_COLOR, DEFAULT_COLOR, name, ""); //Setup some default values
         saveGroup(group); //Save the group
+        updateGraph(group.getObjectId(), graph.with(group));
         if (this.getDefaultGroup() == null) setDefaultGroup(group); //Set this as the default group
         return group;
     }
 
     @Override
     public CGroup getGroup(String name) {
-        return groups.get(name.toLowerCase());
+        return graph.getByName(name);
     }
 
     @Override
@@ -47,6 +60,9 @@ public class CMongoGroupRepository implements CGroupRepository {
         if (defaultGroup1 != null) saveGroup(defaultGroup1);
         this.defaultGroup = group;
         saveGroup(group);
+        //Players who aren't in any groups take their permissions from the default group.
+        if (defaultGroup1 != null) recomputeFrom(((CMongoGroup) defaultGroup1).getObjectId());
+        recomputeFrom(((CMongoGroup) group).getObjectId());
     }
 
     @Override
@@ -55,6 +71,8 @@ public class CMongoGroupRepository implements CGroupRepository {
         DBCollection groupsCollection = database.getCollection(MongoKey.GROUPS_COLLECTION.toString());
         DBObject andRemove = groupsCollection.findAndRemove(query);
         if (andRemove == null) throw new IllegalStateException("Group does not exist!");
+        incrementRevision();
+        onGroupDeleted(((CMongoGroup) group).getObjectId());
         DBObject findPlayersInGroupQuery = new BasicDBObjectBuilder().add(MongoKey.USER_GROUPS_KEY.toString(), ((CMongoGroup) group).getObjectId()).get();
         DBCollection usersCollection = database.getCollection(MongoKey.USERS_COLLETION.toString());
         DBCursor playersInGroup = usersCollection.find(findPlayersInGroupQuery);
@@ -63,7 +81,8 @@ public class CMongoGroupRepository implements CGroupRepository {
             playerInGroup.removeFromGroup(group);
             playerInGroup.saveIntoDatabase();
         }
-        this.groups.remove(group.getName());
+        if (group.equals(defaultGroup)) this.defaultGroup = null;
+        updateGraph(((CMongoGroup) group).getObjectId(), graph.without(((CMongoGroup) group).getObjectId()));
     }
 
     @Override
@@ -73,44 +92,255 @@ public class CMongoGroupRepository implements CGroupRepository {
         DBObject dbObject = group1.getDBObject();
         if (defaultGroup != null && defaultGroup.equals(group1)) dbObject.put(MongoKey.GROUPS_DEFAULT_MARKER.toString(), true);
         else if (dbObject.containsField(MongoKey.GROUPS_DEFAULT_MARKER.toString())) dbObject.removeField(MongoKey.GROUPS_DEFAULT_MARKER.toString());
+        ObjectId revision = new ObjectId();
+        dbObject.put(MongoKey.GROUPS_REVISION_KEY.toString(), revision);
         collection.save(dbObject);
         group1.setObjectId(getValueFrom(dbObject, MongoKey.ID_KEY, ObjectId.class));
+        group1.setRevision(revision);
+        incrementRevision();
+        onGroupWritten(group1.getObjectId());
+    }
+
+    /**
+     * Called once a group has been written to the database.
+     * @param groupId The {@link org.bson.types.ObjectId} of the group.
+     */
+    void onGroupWritten(ObjectId groupId) {}
+
+    /**
+     * Called once a group has been removed from the database.
+     * @param groupId The {@link org.bson.types.ObjectId} of the group.
+     */
+    void onGroupDeleted(ObjectId groupId) {}
+
+    /**
+     * Reads a single group from the database.
+     * @param groupId The {@link org.bson.types.ObjectId} of the group.
+     * @return The group's document, or {@code null} if it no longer exists.
+     */
+    DBObject getGroupDocument(ObjectId groupId) {
+        return database.getCollection(MongoKey.GROUPS_COLLECTION.toString()).findOne(new BasicDBObject(MongoKey.ID_KEY.toString(), groupId));
+    }
+
+    //Always done after the write, so anyone who reads the counter before our change will see it change again after.
+    private void incrementRevision() {
+        database.getCollection(MongoKey.REVISIONS_COLLECTION.toString()).update(new BasicDBObject(MongoKey.ID_KEY.toString(), MongoKey.REVISIONS_GROUPS_ID.toString()),
+                new BasicDBObject("$inc", new BasicDBObject(MongoKey.REVISION_KEY.toString(), 1L)), true, false);
+    }
+
+    private long readRevision() {
+        DBObject counter = database.getCollection(MongoKey.REVISIONS_COLLECTION.toString()).findOne(new BasicDBObject(MongoKey.ID_KEY.toString(), MongoKey.REVISIONS_GROUPS_ID.toString()));
+        Object revision = counter == null ? null : counter.get(MongoKey.REVISION_KEY.toString());
+        return revision instanceof Number ? ((Number) revision).longValue() : 0;
+    }
+
+    /**
+     * Finds the groups that were saved or deleted by another server since we last looked, without reading anything but a single counter if nothing has changed.
+     * Only changes made through a {@link net.cogzmc.core.player.mongo.CMongoGroupRepository} move the counter and the group revisions, so groups edited in the
+     * database directly are not found here and need a full reload ({@code /perm reload}).
+     * This does blocking reads, so it should not be called on the main thread.
+     * @return The documents of the changed groups by {@link org.bson.types.ObjectId} ({@code null} for groups that were deleted), to be given to
+     *         {@link #replaceGroup(org.bson.types.ObjectId, com.mongodb.DBObject)}.
+     */
+    Map<ObjectId, DBObject> findChangedGroups() {
+        long revision = readRevision();
+        if (revision == seenRevision) return Collections.emptyMap();
+        CMongoGroupGraph graph = this.graph;
+        Map<ObjectId, DBObject> changedGroups = new HashMap<>();
+        Set<ObjectId> storedGroups = new HashSet<>();
+        DBObject revisionsOnly = new BasicDBObject(MongoKey.GROUPS_REVISION_KEY.toString(), 1);
+        for (DBObject stored : database.getCollection(MongoKey.GROUPS_COLLECTION.toString()).find(new BasicDBObject(), revisionsOnly)) {
+            ObjectId groupId = getValueFrom(stored, MongoKey.ID_KEY, ObjectId.class);
+            storedGroups.add(groupId);
+            CMongoGroup group = graph.getById(groupId);
+            if (group != null && Objects.equals(group.getRevision(), stored.get(MongoKey.GROUPS_REVISION_KEY.toString()))) continue;
+            changedGroups.put(groupId, getGroupDocument(groupId));
+        }
+        for (CMongoGroup group : graph.getOrder()) {
+            if (!storedGroups.contains(group.getObjectId())) changedGroups.put(group.getObjectId(), null);
+        }
+        this.seenRevision = revision;
+        return changedGroups;
+    }
+
+    /**
+     * Replaces a single group with a copy read from the database, instead of reloading every group.
+     * @param groupId The {@link org.bson.types.ObjectId} of the group.
+     * @param document The group's document from {@link #getGroupDocument(org.bson.types.ObjectId)}, or {@code null} if the group was deleted.
+     */
+    void replaceGroup(ObjectId groupId, DBObject document) {
+        //The old copy may have been the default, in which case the new copy has to say so again.
+        if (this.defaultGroup != null && groupId.equals(((CMongoGroup) this.defaultGroup).getObjectId())) this.defaultGroup = null;
+        CMongoGroup group = document == null ? null : getGroupFor(document);
+        if (group != null && document.containsField(MongoKey.GROUPS_DEFAULT_MARKER.toString())) this.defaultGroup = group;
+        updateGraph(groupId, group == null ? graph.without(groupId) : graph.with(group));
+    }
+
+    /**
+     * Resolves a group's permissions again, along with every group that inherits from it and the online players using any of them.
+     * @param groupId The {@link org.bson.types.ObjectId} of the group that changed.
+     */
+    void recomputeFrom(ObjectId groupId) {
+        Set<ObjectId> affected = new HashSet<>();
+        for (CMongoGroup group : graph.getSelfAndDescendants(groupId)) affected.add(group.getObjectId());
+        recompute(affected);
+    }
+
+    /**
+     * Called when a group's parents have changed, so the graph has to be built again before the group and its descendants are resolved.
+     * @param group The group.
+     */
+    void onParentsChanged(CMongoGroup group) {
+        updateGraph(group.getObjectId(), graph.rebuild());
+    }
+
+    //Groups that inherited from the changed group before, and ones that do now, all need to be resolved again.
+    private void updateGraph(ObjectId changedId, CMongoGroupGraph newGraph) {
+        Set<ObjectId> affected = new HashSet<>();
+        affected.add(changedId);
+        for (CMongoGroup group : graph.getSelfAndDescendants(changedId)) affected.add(group.getObjectId());
+        for (CMongoGroup group : newGraph.getSelfAndDescendants(changedId)) affected.add(group.getObjectId());
+        this.graph = newGraph;
+        recompute(affected);
+    }
+
+    private void recompute(Set<ObjectId> affected) {
+        for (CMongoGroup group : graph.getOrder()) {
+            if (affected.contains(group.getObjectId())) group.resolvePermissions();
+        }
+        resolvedPermissions.invalidate();
+        Set<COfflineMongoPlayer> players = new HashSet<>();
+        for (ObjectId groupId : affected) players.addAll(getOnlineMembers(groupId));
+        for (COfflineMongoPlayer player : players) player.reloadPermissions();
+        //Cached players resolved their permissions from the old ones.
+        if (playerRepository != null) playerRepository.invalidateCachedPlayers();
+    }
+
+    /**
+     * Gets the permissions a set of groups gives, shared with every other player in exactly those groups.
+     * @param groups The groups the player takes their permissions from.
+     * @return The shared {@link net.cogzmc.core.player.mongo.ResolvedPermissions}.
+     */
+    ResolvedPermissions getResolvedPermissions(Collection<CGroup> groups) {
+        //A player still holding groups we've since replaced can't share what they resolve to with anyone else.
+        boolean current = true;
+        for (CGroup group : groups) {
+            if (getGroupByObjectId(((CMongoGroup) group).getObjectId()) != group) current = false;
+        }
+        return resolvedPermissions.get(groups, current);
+    }
+
+    /**
+     * Gets a number that changes every time any group's permissions are resolved again, including when a group is recomputed in place.
+     * @return The generation of the resolved permissions.
+     */
+    int getPermissionsGeneration() {
+        return resolvedPermissions.getGeneration();
+    }
+
+    /**
+     * Records which groups an online player takes their permissions from, replacing whatever was recorded before.
+     * @param player The online player.
+     */
+    void trackOnlineMember(COfflineMongoPlayer player) {
+        untrackOnlineMember(player);
+        List<CGroup> groups = player.getGroups();
+        if (groups.isEmpty() && defaultGroup != null) groups = Collections.singletonList(defaultGroup);
+        for (CGroup group : groups) {
+            ObjectId groupId = ((CMongoGroup) group).getObjectId();
+            if (groupId == null) continue;
+            Set<COfflineMongoPlayer> members = onlineMembers.get(groupId);
+            if (members == null) {
+                Set<COfflineMongoPlayer> members1 = Collections.newSetFromMap(new ConcurrentHashMap<COfflineMongoPlayer, Boolean>());
+                members = onlineMembers.putIfAbsent(groupId, members1);
+                if (members == null) members = members1;
+            }
+            members.add(player);
+        }
+    }
+
+    /**
+     * Forgets an online player once they've logged out.
+     * @param player The player.
+     */
+    void untrackOnlineMember(COfflineMongoPlayer player) {
+        for (Set<COfflineMongoPlayer> members : onlineMembers.values()) members.remove(player);
+    }
+
+    /**
+     * Gets the online players who take their permissions from a group.
+     * @param groupId The {@link org.bson.types.ObjectId} of the group.
+     * @return The players.
+     */
+    Set<COfflineMongoPlayer> getOnlineMembers(ObjectId groupId) {
+        Set<COfflineMongoPlayer> members = onlineMembers.get(groupId);
+        return members == null ? Collections.<COfflineMongoPlayer>emptySet() : new HashSet<>(members);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveGroupAsync(final CGroup group) {
+        return database.supplyAsync(new Supplier<Void>() {
+            @Override
+            public Void get() {
+                saveGroup(group);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteGroupAsync(final CGroup group) {
+        return database.supplyAsync(new Supplier<Void>() {
+            @Override
+            public Void get() {
+                try {
+                    deleteGroup(group);
+                } catch (DatabaseConnectException e) {
+                    throw new CompletionException(e);
+                }
+                return null;
+            }
+        });
     }
 
     @Override
     public void reloadGroups() {
-        this.groups = new HashMap<>();
-        this.defaultGroup = null;
-        DBCollection groups = database.getCollection(MongoKey.GROUPS_COLLECTION.toString());
-        for (DBObject dbObject : groups.find()) {
+        //Read first, so that anything saved while we're reading the groups changes it again.
+        this.seenRevision = readRevision();
+        loadGroups(database.getCollection(MongoKey.GROUPS_COLLECTION.toString()).find());
+    }
+
+    //Replaces every group with the ones in these documents.
+    void loadGroups(Iterable<DBObject> documents) {
+        List<CMongoGroup> groups1 = new ArrayList<>();
+        CGroup defaultGroup1 = null;
+        for (DBObject dbObject : documents) {
             CMongoGroup groupFor = getGroupFor(dbObject);
             if (groupFor == null) continue;
-            this.groups.put(groupFor.getName().toLowerCase(), groupFor);
-            if (dbObject.containsField(MongoKey.GROUPS_DEFAULT_MARKER.toString())) this.defaultGroup = groupFor;
+            groups1.add(groupFor);
+            if (dbObject.containsField(MongoKey.GROUPS_DEFAULT_MARKER.toString())) defaultGroup1 = groupFor;
         }
-        List<CGroup> groups1 = getGroups();
-        Collections.sort(groups1, new Comparator<CGroup>() {
-            @Override
-            public int compare(CGroup o1, CGroup o2) {
-                return o2.isParent(o1) ? -1 : 1;
-            }
-        });
-        for (CGroup cGroup : groups1) {
-            cGroup.reloadPermissions();
+        this.defaultGroup = defaultGroup1;
+        this.graph = new CMongoGroupGraph(groups1);
+        //Parents come first, so every group only has to merge in the permissions its parents have already resolved.
+        for (CMongoGroup group : graph.getOrder()) {
+            group.resolvePermissions();
         }
+        resolvedPermissions.invalidate();
+        //Cached players still point at the groups we just replaced.
+        if (playerRepository != null) playerRepository.invalidateCachedPlayers();
     }
 
     @Override
     public void save() {
-        if (groups == null) return;
-        for (CMongoGroup cMongoGroup : groups.values()) {
+        for (CMongoGroup cMongoGroup : graph.getOrder()) {
             saveGroup(cMongoGroup);
         }
     }
 
     @Override
     public List<CGroup> getGroups() {
-        return new ArrayList<CGroup>(groups.values());
+        return new ArrayList<CGroup>(graph.getOrder());
     }
 
     @Override
@@ -127,13 +357,11 @@ public class CMongoGroupRepository implements CGroupRepository {
         CMongoGroup cMongoGroup = new CMongoGroup(name, this, perm.getDeclaredPermissions(), parentIds, perm.getTablistColor(), perm.getChatColor(), perm.getChatPrefix(), perm.getChatSuffix());
         cMongoGroup.setObjectId(objectId);
         cMongoGroup.setPriority(priority == null ? 0 : priority);
+        cMongoGroup.setRevision(getValueFrom(object, MongoKey.GROUPS_REVISION_KEY, ObjectId.class));
         return cMongoGroup;
     }
 
     CGroup getGroupByObjectId(ObjectId id) {
-        for (CGroup cGroup : getGroups()) {
-            if (((CMongoGroup)cGroup).getObjectId().equals(id)) return cGroup;
-        }
-        return null;
+        return graph.getById(id);
     }
 }
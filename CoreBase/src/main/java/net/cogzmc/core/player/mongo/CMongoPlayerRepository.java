@@ -1,35 +1,108 @@
 package net.cogzmc.core.player.mongo;
 
-import com.mongodb.BasicDBObject;
-import com.mongodb.DBCollection;
-import com.mongodb.DBCursor;
-import com.mongodb.DBObject;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.mongodb.*;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.Synchronized;
 import net.cogzmc.core.player.COfflinePlayer;
 import net.cogzmc.core.player.CPlayerRepository;
 import net.cogzmc.core.player.DatabaseConnectException;
+import net.cogzmc.core.player.PlayerSaveReport;
+import net.cogzmc.core.player.PlayerSummary;
+import net.cogzmc.util.ColorSupplements;
+import org.bson.BasicBSONEncoder;
 import org.bson.types.ObjectId;
 
+import java.io.IOException;
 import java.net.InetAddress;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
-import static net.cogzmc.core.player.mongo.MongoUtils.getValueFrom;
+import static net.cogzmc.core.player.mongo.MongoUtils.*;
 
 @Data
 public class CMongoPlayerRepository implements CPlayerRepository {
+    //The most players we will send to Mongo in a single bulk write.
+    static final int BULK_BATCH_SIZE = 500;
+    //Changes to these are what other servers need to hear about, everything else is only read when a player logs in.
+    static final Set<String> PERMISSION_DATA_KEYS = new HashSet<>(Arrays.asList(MongoKey.USER_GROUPS_KEY.toString(), MongoKey.GROUPS_PERMISSIONS_KEY.toString(),
+            MongoKey.GROUPS_CHAT_COLOR_KEY.toString(), MongoKey.GROUPS_TABLIST_COLOR_KEY.toString(), MongoKey.GROUPS_CHAT_PREFIX_KEY.toString(), MongoKey.GROUPS_CHAT_SUFFIX_KEY.toString()));
+    //The most UUIDs we will put in a single $in query.
+    private static final int IN_QUERY_CHUNK_SIZE = 500;
+    //The only fields we need to build a PlayerSummary.
+    private static final DBObject SUMMARY_PROJECTION = BasicDBObjectBuilder.start()
+            .add(MongoKey.UUID_KEY.toString(), 1)
+            .add(MongoKey.LAST_USERNAME_KEY.toString(), 1)
+            .add(MongoKey.DISPLAY_NAME.toString(), 1)
+            .add(MongoKey.LAST_SEEN_KEY.toString(), 1)
+            .add(MongoKey.GROUPS_CHAT_COLOR_KEY.toString(), 1)
+            .add(MongoKey.GROUPS_CHAT_PREFIX_KEY.toString(), 1)
+            .add(MongoKey.GROUPS_CHAT_SUFFIX_KEY.toString(), 1)
+            .add(MongoKey.GROUPS_TABLIST_COLOR_KEY.toString(), 1).get();
+
     protected final CMongoDatabase database;
     protected CMongoGroupRepository groupRepository;
+    //When this is set, saves are journaled and written in the background instead of going straight to Mongo.
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.PACKAGE) PlayerWriteBehindQueue writeBehindQueue;
+    //Until every player has lowercase usernames, lookups by name have to check the usernames themselves too.
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) private volatile boolean lowercaseUsernamesBackfilled;
+    //Until the IP accounts have been filled in from the player documents, lookups by IP have to check the player documents too.
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) private volatile boolean ipAccountsBackfilled;
+    //Decoded players by UUID. This is null (and nothing is cached) until setupOfflinePlayerCache is called.
+    //Nobody is ever handed one of these, only copies of them, so that two callers changing the same player can't change (or save) each other's changes.
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) private Cache<UUID, COfflineMongoPlayer> offlinePlayerCache;
+
+    /**
+     * Starts caching players looked up by {@link java.util.UUID}. Cached players are dropped when they are saved or deleted, and when the groups are reloaded.
+     * Every lookup that hits the cache is given its own copy of the player, the same as if it had been loaded from the database.
+     * @param maximumSize The most players to hold on to at once.
+     * @param expireAfterSeconds How long a player is held for after being loaded, which bounds how stale a cached player can be.
+     */
+    public void setupOfflinePlayerCache(long maximumSize, long expireAfterSeconds) {
+        this.offlinePlayerCache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Gets the hit, miss, and eviction counts for the offline player cache.
+     * @return The {@link com.google.common.cache.CacheStats} for the cache, or {@code null} if there is no cache.
+     */
+    public CacheStats getOfflinePlayerCacheStats() {
+        return offlinePlayerCache == null ? null : offlinePlayerCache.stats();
+    }
+
+    public void invalidateCachedPlayer(UUID uuid) {
+        if (offlinePlayerCache != null) offlinePlayerCache.invalidate(uuid);
+    }
+
+    public void invalidateCachedPlayers() {
+        if (offlinePlayerCache != null) offlinePlayerCache.invalidateAll();
+    }
 
     @Override
     public List<COfflinePlayer> getOfflinePlayerByName(String username) {
+        //Both of these are indexed lowercase copies of the usernames, so that this is case-insensitive and doesn't scan the collection.
+        String lowercaseUsername = username.toLowerCase();
+        boolean backfilled = isLowercaseUsernamesBackfilled();
+        Pattern exactName = Pattern.compile("^" + escapeForRegex(lowercaseUsername) + "$", Pattern.CASE_INSENSITIVE);
         DBCollection collection = database.getCollection(MongoKey.USERS_COLLETION.toString());
-        DBObject one = collection.findOne(new BasicDBObject(MongoKey.LAST_USERNAME_KEY.toString(), username));
-        if (one != null) return Arrays.asList(playerFromDBObject(one));
-        DBCursor dbObjects = collection.find(new BasicDBObject(MongoKey.USERNAMES_KEY.toString(), username));
+        DBObject one = collection.findOne(getNameQuery(MongoKey.LAST_USERNAME_LOWER_KEY, lowercaseUsername, MongoKey.LAST_USERNAME_KEY, exactName, backfilled));
+        if (one != null) return Arrays.<COfflinePlayer>asList(playerFromDBObject(one));
+        DBCursor dbObjects = collection.find(getNameQuery(MongoKey.USERNAMES_LOWER_KEY, lowercaseUsername, MongoKey.USERNAMES_KEY, exactName, backfilled));
         List<COfflinePlayer> offlinePlayers = new ArrayList<>();
         for (DBObject dbObject : dbObjects) {
             offlinePlayers.add(playerFromDBObject(dbObject));
@@ -37,21 +110,166 @@ public class CMongoPlayerRepository implements CPlayerRepository {
         return offlinePlayers;
     }
 
-    COfflinePlayer playerFromDBObject(DBObject dbObject) {
-        return getPlayerWithUUIDAndObject(UUID.fromString(getValueFrom(dbObject, MongoKey.UUID_KEY.toString(), String.class)), dbObject);
+    @Override
+    public List<COfflinePlayer> getOfflinePlayersByStartOfName(String start, int limit) {
+        //An anchored regex with no special characters can be answered using the index.
+        Pattern prefix = Pattern.compile("^" + escapeForRegex(start.toLowerCase()));
+        Pattern anyCasePrefix = Pattern.compile(prefix.pattern(), Pattern.CASE_INSENSITIVE);
+        DBCursor dbObjects = database.getCollection(MongoKey.USERS_COLLETION.toString())
+                .find(getNameQuery(MongoKey.LAST_USERNAME_LOWER_KEY, prefix, MongoKey.LAST_USERNAME_KEY, anyCasePrefix, isLowercaseUsernamesBackfilled()))
+                .sort(new BasicDBObject(MongoKey.LAST_USERNAME_LOWER_KEY.toString(), 1))
+                .limit(limit);
+        List<COfflinePlayer> offlinePlayers = new ArrayList<>();
+        for (DBObject dbObject : dbObjects) {
+            offlinePlayers.add(playerFromDBObject(dbObject));
+        }
+        return offlinePlayers;
+    }
+
+    //Players who haven't had their lowercase usernames filled in yet can only be found with a case-insensitive regex, which can't use an index.
+    private static DBObject getNameQuery(MongoKey lowercaseKey, Object lowercaseValue, MongoKey legacyKey, Pattern legacyPattern, boolean backfilled) {
+        DBObject lowercaseQuery = new BasicDBObject(lowercaseKey.toString(), lowercaseValue);
+        if (backfilled) return lowercaseQuery;
+        BasicDBList either = new BasicDBList();
+        either.add(lowercaseQuery);
+        either.add(new BasicDBObject(lowercaseKey.toString(), new BasicDBObject("$exists", false)).append(legacyKey.toString(), legacyPattern));
+        return new BasicDBObject("$or", either);
+    }
+
+    private static String escapeForRegex(String string) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : string.toCharArray()) {
+            if (!Character.isLetterOrDigit(c) && c != '_') escaped.append('\\');
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Fills in the lowercase username fields for documents that were written before we had them. Documents are only updated if the fields are still missing, so this is safe to run while players are joining.
+     * Once every player has been gone through, a marker is written so that this never runs again and lookups by name stop checking for players without the fields.
+     * @return The number of documents updated.
+     */
+    public int backfillLowercaseUsernames() {
+        if (isLowercaseUsernamesBackfilled()) return 0;
+        DBCollection collection = database.getCollection(MongoKey.USERS_COLLETION.toString());
+        DBObject missing = new BasicDBObject(MongoKey.USERNAMES_LOWER_KEY.toString(), new BasicDBObject("$exists", false));
+        DBCursor dbObjects = collection.find(missing, new BasicDBObject(MongoKey.LAST_USERNAME_KEY.toString(), 1).append(MongoKey.USERNAMES_KEY.toString(), 1));
+        int updated = 0;
+        for (DBObject dbObject : dbObjects) {
+            String lastUsername = getValueFrom(dbObject, MongoKey.LAST_USERNAME_KEY, String.class);
+            List<String> usernames = getListFor(getValueFrom(dbObject, MongoKey.USERNAMES_KEY, BasicDBList.class), String.class);
+            BasicDBObject set = new BasicDBObject(MongoKey.LAST_USERNAME_LOWER_KEY.toString(), lastUsername == null ? null : lastUsername.toLowerCase())
+                    .append(MongoKey.USERNAMES_LOWER_KEY.toString(), getDBListFor(COfflineMongoPlayer.getLowercaseUsernames(usernames == null ? new ArrayList<String>() : usernames)));
+            DBObject query = new BasicDBObject(MongoKey.ID_KEY.toString(), dbObject.get(MongoKey.ID_KEY.toString())).append(MongoKey.USERNAMES_LOWER_KEY.toString(), new BasicDBObject("$exists", false));
+            updated += collection.update(query, new BasicDBObject("$set", set)).getN();
+        }
+        database.getCollection(MongoKey.MIGRATIONS_COLLECTION.toString()).update(new BasicDBObject(MongoKey.ID_KEY.toString(), MongoKey.MIGRATIONS_LOWERCASE_USERNAMES_ID.toString()),
+                new BasicDBObject("$set", new BasicDBObject(MongoKey.MIGRATION_COMPLETED_KEY.toString(), new Date())), true, false);
+        lowercaseUsernamesBackfilled = true;
+        return updated;
+    }
+
+    /**
+     * Checks if every player has had their lowercase usernames filled in by {@link #backfillLowercaseUsernames()}.
+     * @return {@code true} once the backfill has finished, on this or any other server.
+     */
+    public boolean isLowercaseUsernamesBackfilled() {
+        if (lowercaseUsernamesBackfilled) return true;
+        DBObject marker = database.getCollection(MongoKey.MIGRATIONS_COLLECTION.toString()).findOne(new BasicDBObject(MongoKey.ID_KEY.toString(), MongoKey.MIGRATIONS_LOWERCASE_USERNAMES_ID.toString()));
+        if (marker != null) lowercaseUsernamesBackfilled = true;
+        return lowercaseUsernamesBackfilled;
+    }
+
+    COfflineMongoPlayer playerFromDBObject(DBObject dbObject) {
+        return getPlayerWithUUIDAndObject(getUUIDFrom(dbObject, MongoKey.UUID_KEY), dbObject);
     }
 
     COfflineMongoPlayer getPlayerWithUUIDAndObject(UUID uuid, DBObject object) {
+        //Anything we haven't written yet is applied so that we always read our own saves.
+        if (writeBehindQueue != null) object = writeBehindQueue.overlay(uuid, object);
         return new COfflineMongoPlayer(uuid, object, this);
     }
 
     DBObject getPlayerDocumentFor(UUID uuid) {
-        //gets the users collection                                        finds something matching  UUID                     =    the param represented as a string
-        return database.getCollection(MongoKey.USERS_COLLETION.toString()).findOne(new BasicDBObject(MongoKey.UUID_KEY.toString(), uuid.toString()));
+        //gets the users collection                                        finds something matching  UUID                     in either of the forms it's stored in
+        return database.getCollection(MongoKey.USERS_COLLETION.toString()).findOne(new BasicDBObject(MongoKey.UUID_KEY.toString(), getUUIDQuery(uuid)));
+    }
+
+    /**
+     * Gets the id of the last write to a player's document without loading the rest of it.
+     * @param uuid The {@link java.util.UUID} of the player.
+     * @return The {@code state_id} of the player's document, or {@code null} if they have never been saved or have no id yet.
+     */
+    ObjectId getStoredStateId(UUID uuid) {
+        DBObject document = database.getCollection(MongoKey.USERS_COLLETION.toString())
+                .findOne(new BasicDBObject(MongoKey.UUID_KEY.toString(), getUUIDQuery(uuid)), new BasicDBObject(MongoKey.STATE_ID_KEY.toString(), 1));
+        if (writeBehindQueue != null) document = writeBehindQueue.overlay(uuid, document);
+        return document == null ? null : COfflineMongoPlayer.getStateIdFrom(document);
+    }
+
+    /**
+     * Encodes a player's state to be handed to another server, which reads it back using {@link #getPlayerFromHandedOffState(java.util.UUID, com.mongodb.DBObject)}.
+     * The player should have been written to Mongo (see {@link #writeQueuedPlayer(java.util.UUID)}) first, otherwise the other server won't use it.
+     * @param player The player.
+     * @return The player's document, as BSON.
+     */
+    static byte[] encodeHandedOffState(COfflineMongoPlayer player) {
+        return new BasicBSONEncoder().encode(player.getObjectForPlayer());
+    }
+
+    static DBObject decodeHandedOffState(byte[] state) {
+        return new DefaultDBDecoder().decode(state, (DBCollection) null);
+    }
+
+    /**
+     * Builds a player from the state another server handed off, as long as nothing has been written to them (by any server) since.
+     * @param uuid The {@link java.util.UUID} of the player.
+     * @param document The state, from {@link #decodeHandedOffState(byte[])}.
+     * @return The player, or {@code null} if the state is out of date and they should be loaded from the database instead.
+     */
+    COfflineMongoPlayer getPlayerFromHandedOffState(UUID uuid, DBObject document) {
+        //Only the id of the last write is read from the database, instead of the whole player.
+        ObjectId storedStateId = getStoredStateId(uuid);
+        if (storedStateId == null || !storedStateId.equals(COfflineMongoPlayer.getStateIdFrom(document))) return null;
+        return new COfflineMongoPlayer(uuid, document, this);
+    }
+
+    /**
+     * Writes anything queued for a player to Mongo now, instead of in the background, for when another server is about to read them.
+     * @param uuid The {@link java.util.UUID} of the player.
+     * @throws DatabaseConnectException If what was queued could not be written. It stays queued, and is written in the background as usual.
+     */
+    void writeQueuedPlayer(UUID uuid) throws DatabaseConnectException {
+        //Without a queue, saves already went straight to Mongo.
+        if (writeBehindQueue == null) return;
+        if (!writeBehindQueue.flush(uuid)) throw new DatabaseConnectException("Could not write the queued changes for " + uuid, null, database);
     }
 
     @Override
     public COfflineMongoPlayer getOfflinePlayerByUUID(UUID uuid) {
+        COfflineMongoPlayer player = getCachedPlayer(uuid);
+        if (player != null) return player;
+        player = loadOfflinePlayerByUUID(uuid);
+        cachePlayer(player);
+        return player;
+    }
+
+    private COfflineMongoPlayer getCachedPlayer(UUID uuid) {
+        if (offlinePlayerCache == null) return null;
+        COfflineMongoPlayer player = offlinePlayerCache.getIfPresent(uuid);
+        return player == null ? null : new COfflineMongoPlayer(player, this);
+    }
+
+    //The cache keeps a copy of its own, so the player we were given can be changed without changing what the next caller gets.
+    private void cachePlayer(COfflineMongoPlayer player) {
+        //Players who have never been saved aren't cached, they're only a placeholder until somebody saves them.
+        if (offlinePlayerCache == null || player.getObjectId() == null) return;
+        offlinePlayerCache.put(player.getUniqueIdentifier(), new COfflineMongoPlayer(player, this));
+    }
+
+    //Always goes to the database, skipping the cache.
+    COfflineMongoPlayer loadOfflinePlayerByUUID(UUID uuid) {
         DBObject playerDocumentFor = getPlayerDocumentFor(uuid);
         //We perform no null check here on purpose. The playerDocumentFor variable, when null, is checked in the constructor and used as a marker for a new player
         return getPlayerWithUUIDAndObject(uuid, playerDocumentFor);
@@ -59,50 +277,469 @@ public class CMongoPlayerRepository implements CPlayerRepository {
 
     @Override
     public List<COfflinePlayer> getOfflinePlayersByUUIDS(List<UUID> uuids) {
+        Map<UUID, COfflineMongoPlayer> found = new HashMap<>();
+        Set<UUID> toLoad = new LinkedHashSet<>();
+        for (UUID uuid : uuids) {
+            if (found.containsKey(uuid) || toLoad.contains(uuid)) continue;
+            COfflineMongoPlayer loadedPlayer = getLoadedPlayer(uuid);
+            if (loadedPlayer != null) found.put(uuid, loadedPlayer);
+            else toLoad.add(uuid);
+        }
+        //Everyone else is loaded in as few queries as we can manage.
+        List<UUID> chunk = new ArrayList<>();
+        for (UUID uuid : toLoad) {
+            chunk.add(uuid);
+            if (chunk.size() < IN_QUERY_CHUNK_SIZE) continue;
+            loadPlayersInto(chunk, found);
+            chunk.clear();
+        }
+        if (!chunk.isEmpty()) loadPlayersInto(chunk, found);
+        //Put them back in the order we were asked for them in.
         List<COfflinePlayer> offlinePlayers = new ArrayList<>();
         for (UUID uuid : uuids) {
-            DBObject playerDocumentFor = getPlayerDocumentFor(uuid);
-            if (playerDocumentFor == null) continue; //If this UUID is invalid, this method will not return the player.
-            //TODO actually, this is just here to mark this as a point of interest. Should we create new players we can't find a match for or should we ignore them?
-            /*
-            Joe's opinion:
-                Since all you would be storing is their UUID and their name, there is no reason for storing any more data. I consider it a waste of space.
-                In all of the object, you store such things like tablist colors, permission nodes, which can all be resolved the first time they log on, if
-                they log on. In addition, between the time they are created, and the time they log on, actual defaults may have changed, so it would cause desync.
-                I know you don't have to store all of the fields in a Mongo Document, but for sanity's sake, just throw a null. This also alerts the calling code
-                that that player just doesn't exist in our view.
-
-                I guess another interesting question: Should we simply exclude the person from the list, or insert a null where they should be?
-             */
-            offlinePlayers.add(getPlayerWithUUIDAndObject(uuid, playerDocumentFor));
+            COfflineMongoPlayer player = found.get(uuid);
+            if (player == null) continue; //If this UUID is invalid, this method will not return the player.
+            offlinePlayers.add(player);
         }
         return offlinePlayers;
     }
 
+    //The driver we use only has blocking calls, so the async variants are the blocking ones run on the database IO threads instead of the caller's.
+    @Override
+    public CompletableFuture<COfflinePlayer> getOfflinePlayerByUUIDAsync(final UUID uuid) {
+        return database.supplyAsync(new Supplier<COfflinePlayer>() {
+            @Override
+            public COfflinePlayer get() {
+                return getOfflinePlayerByUUID(uuid);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<COfflinePlayer>> getOfflinePlayersByUUIDSAsync(final List<UUID> uuids) {
+        final Map<UUID, COfflineMongoPlayer> found = new ConcurrentHashMap<>();
+        Set<UUID> toLoad = new LinkedHashSet<>();
+        for (UUID uuid : uuids) {
+            if (found.containsKey(uuid) || toLoad.contains(uuid)) continue;
+            COfflineMongoPlayer loadedPlayer = getLoadedPlayer(uuid);
+            if (loadedPlayer != null) found.put(uuid, loadedPlayer);
+            else toLoad.add(uuid);
+        }
+        //Each chunk is its own query, so they can run side by side on the IO threads.
+        List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        List<UUID> chunk = new ArrayList<>();
+        for (UUID uuid : toLoad) {
+            chunk.add(uuid);
+            if (chunk.size() < IN_QUERY_CHUNK_SIZE) continue;
+            chunks.add(loadPlayersIntoAsync(chunk, found));
+            chunk = new ArrayList<>();
+        }
+        if (!chunk.isEmpty()) chunks.add(loadPlayersIntoAsync(chunk, found));
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[chunks.size()])).thenApply(new Function<Void, List<COfflinePlayer>>() {
+            @Override
+            public List<COfflinePlayer> apply(Void aVoid) {
+                List<COfflinePlayer> offlinePlayers = new ArrayList<>();
+                for (UUID uuid : uuids) {
+                    COfflineMongoPlayer player = found.get(uuid);
+                    if (player != null) offlinePlayers.add(player);
+                }
+                return offlinePlayers;
+            }
+        });
+    }
+
+    private CompletableFuture<Void> loadPlayersIntoAsync(final List<UUID> uuids, final Map<UUID, COfflineMongoPlayer> found) {
+        return database.supplyAsync(new Supplier<Void>() {
+            @Override
+            public Void get() {
+                loadPlayersInto(uuids, found);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<COfflinePlayer>> getOfflinePlayerByNameAsync(final String username) {
+        return database.supplyAsync(new Supplier<List<COfflinePlayer>>() {
+            @Override
+            public List<COfflinePlayer> get() {
+                return getOfflinePlayerByName(username);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<COfflinePlayer>> getOfflinePlayersByStartOfNameAsync(final String start, final int limit) {
+        return database.supplyAsync(new Supplier<List<COfflinePlayer>>() {
+            @Override
+            public List<COfflinePlayer> get() {
+                return getOfflinePlayersByStartOfName(start, limit);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> savePlayerDataAsync(final COfflinePlayer player) {
+        return database.supplyAsync(new Supplier<Void>() {
+            @Override
+            public Void get() {
+                try {
+                    savePlayerData(player);
+                } catch (DatabaseConnectException e) {
+                    throw new CompletionException(e);
+                }
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deletePlayerRecordsAsync(final COfflinePlayer player) {
+        return database.supplyAsync(new Supplier<Void>() {
+            @Override
+            public Void get() {
+                deletePlayerRecords(player);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Gets a player we already have in memory, without going to the database.
+     * @param uuid The {@link java.util.UUID} of the player.
+     * @return The player, or {@code null} if we would need to load them.
+     */
+    COfflineMongoPlayer getLoadedPlayer(UUID uuid) {
+        return getCachedPlayer(uuid);
+    }
+
+    private void loadPlayersInto(List<UUID> uuids, Map<UUID, COfflineMongoPlayer> found) {
+        DBCursor dbObjects = database.getCollection(MongoKey.USERS_COLLETION.toString())
+                .find(new BasicDBObject(MongoKey.UUID_KEY.toString(), getUUIDsQuery(uuids)));
+        for (DBObject dbObject : dbObjects) {
+            COfflineMongoPlayer player = playerFromDBObject(dbObject);
+            found.put(player.getUniqueIdentifier(), player);
+            cachePlayer(player);
+        }
+        //Players who have been saved but not written yet won't be in the database.
+        if (writeBehindQueue == null) return;
+        for (UUID uuid : uuids) {
+            if (found.containsKey(uuid)) continue;
+            DBObject pendingDocument = writeBehindQueue.overlay(uuid, null);
+            if (pendingDocument != null) found.put(uuid, new COfflineMongoPlayer(uuid, pendingDocument, this));
+        }
+    }
+
+    @Override
+    public PlayerSummary getPlayerSummary(UUID uuid) {
+        List<PlayerSummary> summaries = getPlayerSummaries(Collections.singletonList(uuid));
+        return summaries.isEmpty() ? null : summaries.get(0);
+    }
+
+    @Override
+    public List<PlayerSummary> getPlayerSummaries(List<UUID> uuids) {
+        Map<UUID, PlayerSummary> found = new HashMap<>();
+        List<UUID> toLoad = new ArrayList<>();
+        for (UUID uuid : uuids) {
+            if (found.containsKey(uuid)) continue;
+            COfflineMongoPlayer loadedPlayer = getLoadedPlayer(uuid);
+            if (loadedPlayer != null) found.put(uuid, PlayerSummary.of(loadedPlayer));
+            else toLoad.add(uuid);
+        }
+        DBCollection collection = database.getCollection(MongoKey.USERS_COLLETION.toString());
+        for (int i = 0; i < toLoad.size(); i += IN_QUERY_CHUNK_SIZE) {
+            List<UUID> chunk = toLoad.subList(i, Math.min(i + IN_QUERY_CHUNK_SIZE, toLoad.size()));
+            DBObject query = new BasicDBObject(MongoKey.UUID_KEY.toString(), getUUIDsQuery(chunk));
+            for (DBObject dbObject : collection.find(query, SUMMARY_PROJECTION)) {
+                UUID uuid = getUUIDFrom(dbObject, MongoKey.UUID_KEY);
+                if (writeBehindQueue != null) dbObject = writeBehindQueue.overlay(uuid, dbObject);
+                found.put(uuid, summaryFromDBObject(uuid, dbObject));
+            }
+        }
+        //Players who have been saved but not written yet won't be in the database.
+        if (writeBehindQueue != null) {
+            for (UUID uuid : toLoad) {
+                if (found.containsKey(uuid)) continue;
+                DBObject pendingDocument = writeBehindQueue.overlay(uuid, null);
+                if (pendingDocument != null) found.put(uuid, summaryFromDBObject(uuid, pendingDocument));
+            }
+        }
+        List<PlayerSummary> summaries = new ArrayList<>();
+        for (UUID uuid : uuids) {
+            PlayerSummary summary = found.get(uuid);
+            if (summary != null) summaries.add(summary);
+        }
+        return summaries;
+    }
+
+    private static PlayerSummary summaryFromDBObject(UUID uuid, DBObject dbObject) {
+        String name = getValueFrom(dbObject, MongoKey.LAST_USERNAME_KEY, String.class);
+        String displayName = getValueFrom(dbObject, MongoKey.DISPLAY_NAME, String.class);
+        //Matches COfflineMongoPlayer#getDisplayName
+        displayName = displayName == null ? name : ColorSupplements.translateAlternateColorCodes('&', displayName);
+        return new PlayerSummary(uuid, name, displayName,
+                getValueFrom(dbObject, MongoKey.GROUPS_CHAT_COLOR_KEY, String.class),
+                getValueFrom(dbObject, MongoKey.GROUPS_CHAT_PREFIX_KEY, String.class),
+                getValueFrom(dbObject, MongoKey.GROUPS_CHAT_SUFFIX_KEY, String.class),
+                getValueFrom(dbObject, MongoKey.GROUPS_TABLIST_COLOR_KEY, String.class),
+                getValueFrom(dbObject, MongoKey.LAST_SEEN_KEY, Date.class));
+    }
+
     @Override
     public List<COfflinePlayer> getOfflinePlayersForIP(InetAddress address) {
-        DBCursor dbObjects = database.getCollection(MongoKey.USERS_COLLETION.toString()).find(new BasicDBObject(MongoKey.IPS_KEY.toString(), address.getHostAddress()));
-        List<COfflinePlayer> players = new ArrayList<>();
+        return getOfflinePlayersByUUIDS(getUUIDsForIP(address));
+    }
+
+    @Override
+    public List<UUID> getUUIDsForIP(InetAddress address) {
+        DBCursor dbObjects = database.getCollection(MongoKey.IP_ACCOUNTS_COLLECTION.toString())
+                .find(new BasicDBObject(MongoKey.IP_ACCOUNTS_IP_KEY.toString(), address.getHostAddress()), new BasicDBObject(MongoKey.UUID_KEY.toString(), 1))
+                .sort(new BasicDBObject(MongoKey.IP_ACCOUNTS_LAST_SEEN_KEY.toString(), -1));
+        List<UUID> uuids = new ArrayList<>();
         for (DBObject dbObject : dbObjects) {
-            players.add(playerFromDBObject(dbObject));
+            UUID uuid = getUUIDFrom(dbObject, MongoKey.UUID_KEY);
+            if (uuid != null) uuids.add(uuid);
         }
-        return players;
+        if (!isIPAccountsBackfilled()) {
+            //Some of the players who used this IP may not have been copied over yet, so we look in their documents as well, which is also indexed.
+            DBCursor legacyObjects = database.getCollection(MongoKey.USERS_COLLETION.toString())
+                    .find(new BasicDBObject(MongoKey.IPS_KEY.toString(), address.getHostAddress()), new BasicDBObject(MongoKey.UUID_KEY.toString(), 1));
+            for (DBObject dbObject : legacyObjects) {
+                UUID uuid = getUUIDFrom(dbObject, MongoKey.UUID_KEY);
+                if (uuid != null && !uuids.contains(uuid)) uuids.add(uuid);
+            }
+        }
+        return uuids;
+    }
+
+    /**
+     * Checks if the IP accounts collection has been completely filled in from the player documents by {@link #backfillIPAccounts()}.
+     * @return {@code true} once the backfill has finished, on this or any other server.
+     */
+    public boolean isIPAccountsBackfilled() {
+        if (ipAccountsBackfilled) return true;
+        DBObject marker = database.getCollection(MongoKey.MIGRATIONS_COLLECTION.toString()).findOne(new BasicDBObject(MongoKey.ID_KEY.toString(), MongoKey.MIGRATIONS_IP_ACCOUNTS_ID.toString()));
+        if (marker != null) ipAccountsBackfilled = true;
+        return ipAccountsBackfilled;
+    }
+
+    @Override
+    public List<String> getIPsForUUID(UUID uuid) {
+        DBCursor dbObjects = database.getCollection(MongoKey.IP_ACCOUNTS_COLLECTION.toString())
+                .find(new BasicDBObject(MongoKey.UUID_KEY.toString(), uuid), new BasicDBObject(MongoKey.IP_ACCOUNTS_IP_KEY.toString(), 1))
+                .sort(new BasicDBObject(MongoKey.IP_ACCOUNTS_LAST_SEEN_KEY.toString(), -1));
+        List<String> ips = new ArrayList<>();
+        for (DBObject dbObject : dbObjects) {
+            ips.add(getValueFrom(dbObject, MongoKey.IP_ACCOUNTS_IP_KEY, String.class));
+        }
+        return ips;
+    }
+
+    /**
+     * Records that a player has connected from an IP address, so that they can be found using {@link #getUUIDsForIP(java.net.InetAddress)}.
+     * @param uuid The {@link java.util.UUID} of the player.
+     * @param ip The IP address they connected from.
+     * @param seen When they connected.
+     */
+    public void recordIPAccount(UUID uuid, String ip, Date seen) {
+        recordIPAccount(uuid, ip, seen, seen);
+    }
+
+    private void recordIPAccount(UUID uuid, String ip, Date firstSeen, Date lastSeen) {
+        DBObject query = new BasicDBObject(MongoKey.IP_ACCOUNTS_IP_KEY.toString(), ip).append(MongoKey.UUID_KEY.toString(), uuid);
+        //$min and $max keep this right even if two servers record the same pair out of order.
+        DBObject update = new BasicDBObject("$max", new BasicDBObject(MongoKey.IP_ACCOUNTS_LAST_SEEN_KEY.toString(), lastSeen))
+                .append("$min", new BasicDBObject(MongoKey.IP_ACCOUNTS_FIRST_SEEN_KEY.toString(), firstSeen));
+        database.getCollection(MongoKey.IP_ACCOUNTS_COLLECTION.toString()).update(query, update, true, false);
+    }
+
+    /**
+     * Fills in the IP accounts collection from the IP lists in player documents, which is all we had before the collection existed.
+     * Once every player has been gone through, a marker is written so that this never runs again. If we're stopped before then, it starts over next time,
+     * which is safe since every pair is upserted. This is also why it is safe to run while players are joining, or on several servers at once.
+     * @return The number of pairs recorded.
+     */
+    public int backfillIPAccounts() {
+        if (isIPAccountsBackfilled()) return 0;
+        DBObject fields = new BasicDBObject(MongoKey.UUID_KEY.toString(), 1).append(MongoKey.IPS_KEY.toString(), 1)
+                .append(MongoKey.FIRST_JOIN_KEY.toString(), 1).append(MongoKey.LAST_SEEN_KEY.toString(), 1);
+        DBCursor dbObjects = database.getCollection(MongoKey.USERS_COLLETION.toString()).find(new BasicDBObject(), fields);
+        int recorded = 0;
+        for (DBObject dbObject : dbObjects) {
+            UUID uuid = getUUIDFrom(dbObject, MongoKey.UUID_KEY);
+            List<String> ips = getListFor(getValueFrom(dbObject, MongoKey.IPS_KEY, BasicDBList.class), String.class);
+            if (uuid == null || ips == null) continue;
+            //We never knew when each IP was used, so the best we can do is the span of time we knew the player for.
+            Date firstSeen = getValueFrom(dbObject, MongoKey.FIRST_JOIN_KEY, Date.class);
+            Date lastSeen = getValueFrom(dbObject, MongoKey.LAST_SEEN_KEY, Date.class);
+            if (lastSeen == null) lastSeen = firstSeen == null ? new Date(0) : firstSeen;
+            if (firstSeen == null) firstSeen = lastSeen;
+            for (String ip : ips) {
+                recordIPAccount(uuid, ip, firstSeen, lastSeen);
+                recorded++;
+            }
+        }
+        database.getCollection(MongoKey.MIGRATIONS_COLLECTION.toString()).update(new BasicDBObject(MongoKey.ID_KEY.toString(), MongoKey.MIGRATIONS_IP_ACCOUNTS_ID.toString()),
+                new BasicDBObject("$set", new BasicDBObject(MongoKey.MIGRATION_COMPLETED_KEY.toString(), new Date())), true, false);
+        ipAccountsBackfilled = true;
+        return recorded;
     }
 
     @Override
     public void savePlayerData(COfflinePlayer player) throws DatabaseConnectException {
         //Gets the COfflineMongoPlayer
         COfflineMongoPlayer player1 = (COfflineMongoPlayer) player;
-        //And then get the database object representation.
-        DBObject objectForPlayer = player1.getObjectForPlayer();
-        //And save it into the database.
-        this.database.getCollection(MongoKey.USERS_COLLETION.toString()).save(objectForPlayer);
-        player1.setObjectId(getValueFrom(objectForPlayer, MongoKey.ID_KEY, ObjectId.class));
+        //And then take everything that has changed since we last saved.
+        invalidateCachedPlayer(player.getUniqueIdentifier());
+        if (writeBehindQueue != null) {
+            try {
+                writeBehindQueue.enqueueFrom(Collections.singletonList(player1));
+            } catch (IOException e) {
+                throw new DatabaseConnectException("Could not write to the player journal", e, database);
+            }
+            return;
+        }
+        PlayerUpdate update = player1.takePendingUpdate();
+        if (update.isEmpty()) return; //Nothing changed, so there is nothing to send.
+        try {
+            writePlayerUpdate(update);
+        } catch (RuntimeException e) {
+            //Hand the changes back so they go out with the next save.
+            player1.restorePendingUpdate(update);
+            throw e;
+        }
+    }
+
+    void writePlayerUpdate(PlayerUpdate update) {
+        DBCollection collection = database.getCollection(MongoKey.USERS_COLLETION.toString());
+        //A player who has never been saved is upserted as a whole, everyone else only gets what changed.
+        if (update.isReplacement()) collection.update(update.getQuery(), update.getUpdateObject(), true, false);
+        else collection.update(update.getQuery(), update.getUpdateObject());
+        if (update.changesAny(PERMISSION_DATA_KEYS)) onPermissionDataWritten(update.getUuid());
+    }
+
+    /**
+     * Called once a change to a player's groups, permissions, or chat formatting has been written to the database.
+     * @param uuid The {@link java.util.UUID} of the player who changed.
+     */
+    void onPermissionDataWritten(UUID uuid) {}
+
+    @Override
+    public PlayerSaveReport savePlayerData(Collection<? extends COfflinePlayer> players) {
+        return savePlayerData(players, -1);
+    }
+
+    @Override
+    public PlayerSaveReport savePlayerData(Collection<? extends COfflinePlayer> players, long timeoutMillis) {
+        //Journaled players are all handed to the queue at once, which does its own batching.
+        if (writeBehindQueue != null) return enqueuePlayers(players);
+        long deadline = timeoutMillis < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeoutMillis;
+        PlayerSaveReport report = new PlayerSaveReport();
+        List<COfflineMongoPlayer> batchPlayers = new ArrayList<>();
+        List<PlayerUpdate> batchUpdates = new ArrayList<>();
+        for (COfflinePlayer player : players) {
+            COfflineMongoPlayer mongoPlayer = (COfflineMongoPlayer) player;
+            invalidateCachedPlayer(player.getUniqueIdentifier());
+            PlayerUpdate update = mongoPlayer.takePendingUpdate();
+            if (update.isEmpty()) {
+                report.setUnchangedPlayers(report.getUnchangedPlayers() + 1);
+                continue;
+            }
+            batchPlayers.add(mongoPlayer);
+            batchUpdates.add(update);
+            if (batchUpdates.size() < BULK_BATCH_SIZE) continue;
+            savePlayerBatch(batchPlayers, batchUpdates, deadline, report);
+            batchPlayers.clear();
+            batchUpdates.clear();
+        }
+        if (!batchUpdates.isEmpty()) savePlayerBatch(batchPlayers, batchUpdates, deadline, report);
+        return report;
+    }
+
+    private PlayerSaveReport enqueuePlayers(Collection<? extends COfflinePlayer> players) {
+        PlayerSaveReport report = new PlayerSaveReport();
+        List<COfflineMongoPlayer> mongoPlayers = new ArrayList<>();
+        for (COfflinePlayer player : players) {
+            invalidateCachedPlayer(player.getUniqueIdentifier());
+            mongoPlayers.add((COfflineMongoPlayer) player);
+        }
+        try {
+            List<COfflineMongoPlayer> changedPlayers = writeBehindQueue.enqueueFrom(mongoPlayers);
+            report.getSavedPlayers().addAll(changedPlayers);
+            report.setUnchangedPlayers(mongoPlayers.size() - changedPlayers.size());
+        } catch (IOException e) {
+            report.setFailedBatches(1);
+            for (COfflineMongoPlayer player : mongoPlayers) report.getFailedPlayers().put(player, "Could not write to the player journal " + e.getMessage());
+        }
+        return report;
+    }
+
+    private void savePlayerBatch(List<COfflineMongoPlayer> players, List<PlayerUpdate> updates, long deadline, PlayerSaveReport report) {
+        Map<Integer, String> failures;
+        if (System.currentTimeMillis() > deadline) {
+            //We're out of time, so nobody in this batch gets written. Their changes are handed back below.
+            report.setDeadlineExceeded(true);
+            failures = new HashMap<>();
+            for (int i = 0; i < updates.size(); i++) failures.put(i, "Ran out of time before this player could be saved");
+        } else {
+            report.setBatches(report.getBatches() + 1);
+            failures = writePlayerUpdates(updates);
+        }
+        if (!failures.isEmpty()) report.setFailedBatches(report.getFailedBatches() + 1);
+        for (int i = 0; i < players.size(); i++) {
+            COfflineMongoPlayer player = players.get(i);
+            String failure = failures.get(i);
+            if (failure == null) {
+                report.getSavedPlayers().add(player);
+                continue;
+            }
+            //Hand the changes back so they go out with the next save.
+            player.restorePendingUpdate(updates.get(i));
+            report.getFailedPlayers().put(player, failure);
+        }
+    }
+
+    /**
+     * Writes many updates in a single unordered bulk write. One update failing does not stop the others from being written.
+     * @param updates The updates to write, at most {@link #BULK_BATCH_SIZE} of them.
+     * @return The index of every update that could not be written, mapped to the reason why.
+     */
+    Map<Integer, String> writePlayerUpdates(List<PlayerUpdate> updates) {
+        Map<Integer, String> failures = new HashMap<>();
+        if (updates.isEmpty()) return failures;
+        BulkWriteOperation operation = database.getCollection(MongoKey.USERS_COLLETION.toString()).initializeUnorderedBulkOperation();
+        for (PlayerUpdate update : updates) {
+            //Same as writePlayerUpdate, new players are upserted whole and everyone else only gets what changed.
+            if (update.isReplacement()) operation.find(update.getQuery()).upsert().replaceOne(update.getUpdateObject());
+            else operation.find(update.getQuery()).updateOne(update.getUpdateObject());
+        }
+        try {
+            operation.execute();
+        } catch (BulkWriteException e) {
+            //The indexes of the errors line up with the order we added the updates in.
+            for (BulkWriteError error : e.getWriteErrors()) failures.put(error.getIndex(), error.getMessage());
+            //The writes went through, but not to as many servers as we asked for, so they could still be rolled back. We keep them to be sent again.
+            if (e.getWriteConcernError() != null) {
+                for (int i = 0; i < updates.size(); i++) {
+                    if (!failures.containsKey(i)) failures.put(i, e.getWriteConcernError().getMessage());
+                }
+            }
+        } catch (MongoException e) {
+            //We don't know what made it, so we assume nothing did. Sending them again is harmless, since every operation in an update leaves the same result when it's applied twice.
+            for (int i = 0; i < updates.size(); i++) failures.put(i, e.getMessage());
+        }
+        for (int i = 0; i < updates.size(); i++) {
+            if (!failures.containsKey(i) && updates.get(i).changesAny(PERMISSION_DATA_KEYS)) onPermissionDataWritten(updates.get(i).getUuid());
+        }
+        return failures;
     }
 
     @Override
     @Synchronized
     public void deletePlayerRecords(COfflinePlayer player) throws IllegalArgumentException {
+        //Otherwise a queued save would bring the player right back.
+        if (writeBehindQueue != null) writeBehindQueue.discard(player.getUniqueIdentifier());
+        invalidateCachedPlayer(player.getUniqueIdentifier());
         database.getCollection(MongoKey.USERS_COLLETION.toString()).remove(new BasicDBObject(MongoKey.ID_KEY.toString(), ((COfflineMongoPlayer) player).getObjectId()));
     }
 
@@ -115,7 +752,7 @@ public class CMongoPlayerRepository implements CPlayerRepository {
         //Find the player doc by the ID from the users collection
         DBObject one = database.getCollection(MongoKey.USERS_COLLETION.toString()).findOne(new BasicDBObject(MongoKey.ID_KEY.toString(), id));
         if (one == null) return null;
-        UUID uuid = UUID.fromString(getValueFrom(one, MongoKey.UUID_KEY, String.class)); //Get the UUID from that doc, and
-        return new COfflineMongoPlayer(uuid, one, this); //Create a new COfflineMongoPlayer with that.
+        UUID uuid = getUUIDFrom(one, MongoKey.UUID_KEY); //Get the UUID from that doc, and
+        return getPlayerWithUUIDAndObject(uuid, one); //Create a new COfflineMongoPlayer with that.
     }
 }
@@ -1,6 +1,5 @@
 package net.cogzmc.core.player.mongo;
 
-import com.google.common.base.Joiner;
 import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
 import com.mongodb.BasicDBObjectBuilder;
@@ -8,61 +7,84 @@ import com.mongodb.DBObject;
 import lombok.*;
 import lombok.extern.java.Log;
 import net.cogzmc.core.asset.Asset;
+import net.cogzmc.core.asset.AssetRegistry;
 import net.cogzmc.core.player.CGroup;
 import net.cogzmc.core.player.COfflinePlayer;
 import net.cogzmc.core.player.CPermissible;
 import net.cogzmc.core.player.DatabaseConnectException;
+import net.cogzmc.core.player.PermissionTrie;
+import net.cogzmc.core.player.SettingKey;
 import net.cogzmc.util.ColorSupplements;
 import org.bson.types.ObjectId;
 
-import java.lang.reflect.InvocationTargetException;
 import java.net.InetAddress;
 import java.util.*;
 
 import static net.cogzmc.core.player.mongo.MongoUtils.*;
-import static net.cogzmc.util.RandomUtils.safeCast;
 
 @EqualsAndHashCode(of = {"uniqueIdentifier"})
 @Log
 public class COfflineMongoPlayer implements COfflinePlayer {
     @Getter private List<String> knownUsernames;
-    @Getter @Setter(AccessLevel.PROTECTED) private String lastKnownUsername;
+    @Getter private String lastKnownUsername;
     @Getter private UUID uniqueIdentifier;
     @Getter private List<String> knownIPAddresses;
-    @Getter @Setter(AccessLevel.PROTECTED) private Date firstTimeOnline;
-    @Getter @Setter(AccessLevel.PROTECTED) private Date lastTimeOnline;
-    @Getter @Setter(AccessLevel.PROTECTED) private Long millisecondsOnline;
-
-    @Getter private List<Asset> assets;
+    @Getter private Date firstTimeOnline;
+    @Getter private Date lastTimeOnline;
+    @Getter private Long millisecondsOnline;
+
+    //Assets are kept as they were stored until somebody asks for them, since most lookups of a player never do.
+    private BasicDBList rawAssets;
+    private List<Asset> assets;
+    //Assets we don't know how to create, which are saved back exactly as we found them.
+    private List<DBObject> unknownAssets;
     private Map<String, Object> settings;
+    //Typed settings that have already been decoded from the settings above, by setting name so that changing a setting by name always forgets it.
+    private final Map<String, DecodedSetting> decodedSettings = new HashMap<>();
 
     /* helpers */
     protected final CMongoPlayerRepository playerRepository;
     @Getter @Setter private ObjectId objectId;
+    //Replaced with a new id every time any server writes something, so a copy of this player is current only if its id is the one in the database.
+    @Getter(AccessLevel.PACKAGE) private ObjectId stateId;
 
     /* Permissions */
-    @Getter @Setter private String tablistColor;
-    @Getter @Setter private String chatColor;
-    @Getter @Setter private String chatPrefix;
-    @Getter @Setter private String chatSuffix;
+    @Getter private String tablistColor;
+    @Getter private String chatColor;
+    @Getter private String chatPrefix;
+    @Getter private String chatSuffix;
     private String displayName;
     protected Map<String, Boolean> declaredPermissions;
     @Getter protected Map<String, Boolean> allPermissions;
+    //Built from allPermissions every time they're resolved, this is what answers hasPermission.
+    protected PermissionTrie permissionTrie = PermissionTrie.EMPTY;
+    //The group repository's permissions generation as of when allPermissions were resolved.
+    private int permissionsGeneration;
     protected List<CGroup> groups;
     @Getter protected CGroup primaryGroup;
     protected List<ObjectId> groupIds;
 
+    /* Dirty tracking */
+    //Holds everything that has changed since we were last saved, the lists are written as a whole when they are marked as dirty.
+    private PlayerUpdate pendingUpdate;
+    private boolean assetsDirty, groupsDirty, permissionsDirty;
+
     //Called in all instances when we're loading a player from the database
     public COfflineMongoPlayer(UUID uniqueIdentifier, DBObject player, @NonNull CMongoPlayerRepository repository) {
         this.playerRepository = repository;
         if (player == null) {
             this.assets = new ArrayList<>();
+            this.unknownAssets = new ArrayList<>();
             this.settings = new HashMap<>();
             this.uniqueIdentifier = uniqueIdentifier;
             this.objectId = null;
             this.declaredPermissions = new HashMap<>();
             this.groups = new ArrayList<>();
             this.groupIds = new ArrayList<>();
+            this.knownUsernames = new ArrayList<>();
+            this.knownIPAddresses = new ArrayList<>();
+            this.millisecondsOnline = 0L;
+            this.pendingUpdate = new PlayerUpdate(null, uniqueIdentifier);
             return;
         }
         this.objectId = getValueFrom(player, MongoKey.ID_KEY, ObjectId.class);
@@ -73,8 +95,60 @@ public class COfflineMongoPlayer implements COfflinePlayer {
     //This copies the state of all variables in the other COfflinePlayer object that is being passed.
     protected COfflineMongoPlayer(COfflineMongoPlayer otherCPlayer, CMongoPlayerRepository manager) {
         this.playerRepository = manager;
-        this.objectId = otherCPlayer.getObjectId();
-        updateFromDBObject(otherCPlayer.getObjectForPlayer());
+        //The other player has already decoded everything, so we take it as is instead of encoding and decoding the document again.
+        otherCPlayer.copyStateInto(this);
+    }
+
+    //Does the same as updateFromDBObject(getObjectForPlayer()) would for the other player, without building the document.
+    @Synchronized
+    private void copyStateInto(COfflineMongoPlayer other) {
+        other.objectId = this.objectId;
+        other.stateId = this.stateId;
+        other.lastKnownUsername = this.lastKnownUsername;
+        other.uniqueIdentifier = this.uniqueIdentifier;
+        other.displayName = this.displayName;
+        other.firstTimeOnline = this.firstTimeOnline;
+        other.lastTimeOnline = this.lastTimeOnline;
+        other.millisecondsOnline = this.millisecondsOnline == null ? 0 : this.millisecondsOnline;
+        other.knownIPAddresses = new ArrayList<>(this.knownIPAddresses);
+        other.knownUsernames = new ArrayList<>(this.knownUsernames);
+        //Settings can hold maps and lists, which need copies of their own, the same as reading them back from a document would make.
+        @SuppressWarnings("unchecked") Map<String, Object> settings = (Map<String, Object>) deepCopy(this.settings);
+        other.settings = settings;
+        //Assets hold on to the player that created them, so any we've created are handed over as they'd be stored and created again for the other player when asked for.
+        other.rawAssets = getAssetList();
+        other.assets = null;
+        other.unknownAssets = null;
+        other.chatColor = this.chatColor;
+        other.chatPrefix = this.chatPrefix;
+        other.chatSuffix = this.chatSuffix;
+        other.tablistColor = this.tablistColor;
+        other.declaredPermissions = new HashMap<>(this.declaredPermissions);
+        other.groupIds = new ArrayList<>(this.groupIds);
+        other.resetPendingUpdate();
+        if (this.allPermissions == null || !hasCurrentGroups()) {
+            //We never resolved our permissions (a new player), or our groups are from before the permissions were last reloaded.
+            other.reloadPermissions0();
+            return;
+        }
+        other.groups = new ArrayList<>(this.groups);
+        other.primaryGroup = this.primaryGroup;
+        other.permissionsGeneration = this.permissionsGeneration;
+        //Both are never changed once resolved, so they can be shared.
+        other.allPermissions = this.allPermissions;
+        other.permissionTrie = this.permissionTrie;
+    }
+
+    //Reloading the permissions replaces every group instance, so we check that ours are still the ones the repository has.
+    //A group changed on its own is resolved again in place instead, which only the permissions generation tells us about.
+    private boolean hasCurrentGroups() {
+        CMongoGroupRepository groupRepository = playerRepository.groupRepository;
+        if (groupRepository == null) return false;
+        if (this.permissionsGeneration != groupRepository.getPermissionsGeneration()) return false;
+        for (CGroup group : this.groups) {
+            if (groupRepository.getGroupByObjectId(((CMongoGroup) group).getObjectId()) != group) return false;
+        }
+        return this.primaryGroup == null || groupRepository.getGroupByObjectId(((CMongoGroup) this.primaryGroup).getObjectId()) == this.primaryGroup;
     }
 
     @Synchronized
@@ -82,37 +156,212 @@ public class COfflineMongoPlayer implements COfflinePlayer {
         BasicDBObjectBuilder objectBuilder = new BasicDBObjectBuilder();
         if (this.objectId != null) objectBuilder.add(MongoKey.ID_KEY.toString(), this.objectId);
         objectBuilder.add(MongoKey.LAST_USERNAME_KEY.toString(), lastKnownUsername);
-        objectBuilder.add(MongoKey.UUID_KEY.toString(), uniqueIdentifier.toString());
+        objectBuilder.add(MongoKey.UUID_KEY.toString(), uniqueIdentifier);
+        objectBuilder.add(MongoKey.SCHEMA_VERSION_KEY.toString(), MongoSchemaMigrator.SCHEMA_VERSION);
+        if (this.stateId != null) objectBuilder.add(MongoKey.STATE_ID_KEY.toString(), stateId);
         objectBuilder.add(MongoKey.DISPLAY_NAME.toString(), displayName);
         objectBuilder.add(MongoKey.FIRST_JOIN_KEY.toString(), firstTimeOnline);
         objectBuilder.add(MongoKey.LAST_SEEN_KEY.toString(), lastTimeOnline);
         objectBuilder.add(MongoKey.TIME_ONLINE_KEY.toString(), millisecondsOnline);
         objectBuilder.add(MongoKey.IPS_KEY.toString(), getDBListFor(knownIPAddresses));
         objectBuilder.add(MongoKey.USERNAMES_KEY.toString(), getDBListFor(knownUsernames));
+        objectBuilder.add(MongoKey.LAST_USERNAME_LOWER_KEY.toString(), lastKnownUsername == null ? null : lastKnownUsername.toLowerCase());
+        objectBuilder.add(MongoKey.USERNAMES_LOWER_KEY.toString(), getDBListFor(getLowercaseUsernames(knownUsernames)));
         objectBuilder.add(MongoKey.SETTINGS_KEY.toString(), getDBObjectFor(settings));
-        List<Map> assetDefinition = new ArrayList<>();
+        objectBuilder.add(MongoKey.ASSETS_KEY.toString(), getAssetList());
+        objectBuilder.add(MongoKey.USER_GROUPS_KEY.toString(), getDBListFor(new ArrayList<>(this.groupIds)));
+        combineObjectBuilders(objectBuilder, getObjectForPermissible(this));
+        return objectBuilder.get();
+    }
+
+    @Synchronized
+    private BasicDBList getAssetList() {
+        //Nobody has touched the assets, so they're exactly what we loaded.
+        if (assets == null) return (BasicDBList) rawAssets.copy();
+        List<Object> assetDefinition = new ArrayList<>();
         for (Asset asset : assets) {
             Map<String, Object> assetMap = new HashMap<>();
             assetMap.put(MongoKey.FULLY_QUALIFIED_CLASS_NAME_KEY.toString(), asset.getClass().getName());
             assetMap.put(MongoKey.META_KEY.toString(), asset.getMetaVariables());
             assetDefinition.add(assetMap);
         }
-        objectBuilder.add(MongoKey.ASSETS_KEY.toString(), getDBListFor(assetDefinition));
-        List<ObjectId> groupIds = new ArrayList<>();
-        groupIds.addAll(this.groupIds);
-        objectBuilder.add(MongoKey.USER_GROUPS_KEY.toString(), getDBListFor(groupIds));
-        combineObjectBuilders(objectBuilder, getObjectForPermissible(this));
-        return objectBuilder.get();
+        assetDefinition.addAll(unknownAssets);
+        return getDBListFor(assetDefinition);
+    }
+
+    @Override
+    @Synchronized
+    public List<Asset> getAssets() {
+        //A copy, since changes have to go through giveAsset and removeAsset to be saved.
+        return Collections.unmodifiableList(new ArrayList<>(loadAssets()));
+    }
+
+    //Creates the assets the first time they're needed. Must be called holding the lock.
+    private List<Asset> loadAssets() {
+        if (assets != null) return assets;
+        List<Asset> assets = new ArrayList<>();
+        List<DBObject> unknownAssets = new ArrayList<>();
+        for (Object assetEntry : rawAssets) {
+            if (!(assetEntry instanceof DBObject)) continue;
+            DBObject assetObject = (DBObject) assetEntry;
+            String fqcn = getValueFrom(assetObject, MongoKey.FULLY_QUALIFIED_CLASS_NAME_KEY, String.class);
+            Map<String, Object> meta = getMapFor(getValueFrom(assetObject, MongoKey.META_KEY, DBObject.class));
+            Asset asset = null;
+            try {
+                asset = AssetRegistry.createAsset(fqcn, this, meta);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                log.severe("Could not load asset for player " + this.lastKnownUsername + " - " + fqcn + " - " + e.getMessage());
+            }
+            if (asset != null) assets.add(asset);
+            else unknownAssets.add(assetObject);
+        }
+        this.assets = assets;
+        this.unknownAssets = unknownAssets;
+        this.rawAssets = null;
+        return assets;
+    }
+
+    /**
+     * Takes everything that has changed since the last save and resets our tracking. If the save fails, the update should be handed back using {@link #restorePendingUpdate(PlayerUpdate)}.
+     *
+     * Players who have never been saved are given an {@link org.bson.types.ObjectId} here, and their update is the full document.
+     * @return The changes to write, which is empty if nothing changed.
+     */
+    @Synchronized
+    final PlayerUpdate takePendingUpdate() {
+        PlayerUpdate update;
+        if (this.objectId == null) {
+            this.objectId = new ObjectId();
+            this.stateId = new ObjectId();
+            update = PlayerUpdate.forDocument(this.objectId, this.uniqueIdentifier, getObjectForPlayer());
+        } else {
+            update = this.pendingUpdate;
+            if (assetsDirty) update.set(MongoKey.ASSETS_KEY.toString(), getAssetList());
+            if (groupsDirty) update.set(MongoKey.USER_GROUPS_KEY.toString(), getDBListFor(new ArrayList<>(this.groupIds)));
+            if (permissionsDirty) update.set(MongoKey.GROUPS_PERMISSIONS_KEY.toString(), getObjectForPermissible(this).get().get(MongoKey.GROUPS_PERMISSIONS_KEY.toString()));
+            if (!update.isEmpty()) update.set(MongoKey.STATE_ID_KEY.toString(), this.stateId = new ObjectId());
+        }
+        resetPendingUpdate();
+        return update;
+    }
+
+    /**
+     * Hands back an update that could not be written, so that it is written with the next save along with anything that has changed since.
+     * @param update The update that was taken using {@link #takePendingUpdate()} and could not be saved.
+     */
+    @Synchronized
+    final void restorePendingUpdate(PlayerUpdate update) {
+        update.merge(this.pendingUpdate);
+        this.pendingUpdate = update;
+    }
+
+    private void resetPendingUpdate() {
+        this.pendingUpdate = new PlayerUpdate(this.objectId, this.uniqueIdentifier);
+        this.assetsDirty = false;
+        this.groupsDirty = false;
+        this.permissionsDirty = false;
+    }
+
+    @Synchronized
+    private void markSet(MongoKey key, Object value) {
+        markSet(key.toString(), value);
+    }
+
+    @Synchronized
+    private void markSet(String key, Object value) {
+        if (value == null) this.pendingUpdate.unset(key);
+        else this.pendingUpdate.set(key, value);
+    }
+
+    @Synchronized
+    private void markAddToSet(MongoKey key, Object value) {
+        this.pendingUpdate.addToSet(key.toString(), value);
+    }
+
+    protected void setLastKnownUsername(String lastKnownUsername) {
+        this.lastKnownUsername = lastKnownUsername;
+        markSet(MongoKey.LAST_USERNAME_KEY, lastKnownUsername);
+        markSet(MongoKey.LAST_USERNAME_LOWER_KEY, lastKnownUsername == null ? null : lastKnownUsername.toLowerCase());
+    }
+
+    protected void setFirstTimeOnline(Date firstTimeOnline) {
+        this.firstTimeOnline = firstTimeOnline;
+        markSet(MongoKey.FIRST_JOIN_KEY, firstTimeOnline);
+    }
+
+    protected void setLastTimeOnline(Date lastTimeOnline) {
+        this.lastTimeOnline = lastTimeOnline;
+        markSet(MongoKey.LAST_SEEN_KEY, lastTimeOnline);
+    }
+
+    protected void setMillisecondsOnline(Long millisecondsOnline) {
+        this.millisecondsOnline = millisecondsOnline;
+        markSet(MongoKey.TIME_ONLINE_KEY, millisecondsOnline);
+    }
+
+    //Records a username for this player if we've never seen it before.
+    protected final void logUsername(String username) {
+        if (knownUsernames.contains(username)) return;
+        knownUsernames.add(username);
+        markAddToSet(MongoKey.USERNAMES_KEY, username);
+        //The lowercase list is written whole, so that it always matches the usernames even if it was never filled in for this document.
+        markSet(MongoKey.USERNAMES_LOWER_KEY, getDBListFor(getLowercaseUsernames(knownUsernames)));
+    }
+
+    //Holds each username once, ignoring case, for case-insensitive lookups.
+    static List<String> getLowercaseUsernames(List<String> usernames) {
+        Set<String> lowercaseUsernames = new LinkedHashSet<>();
+        for (String username : usernames) lowercaseUsernames.add(username.toLowerCase());
+        return new ArrayList<>(lowercaseUsernames);
+    }
+
+    @Override
+    public void setTablistColor(String tablistColor) {
+        this.tablistColor = tablistColor;
+        markSet(MongoKey.GROUPS_TABLIST_COLOR_KEY, tablistColor);
+    }
+
+    @Override
+    public void setChatColor(String chatColor) {
+        this.chatColor = chatColor;
+        markSet(MongoKey.GROUPS_CHAT_COLOR_KEY, chatColor);
+    }
+
+    @Override
+    public void setChatPrefix(String chatPrefix) {
+        this.chatPrefix = chatPrefix;
+        markSet(MongoKey.GROUPS_CHAT_PREFIX_KEY, chatPrefix);
     }
 
     @Override
+    public void setChatSuffix(String chatSuffix) {
+        this.chatSuffix = chatSuffix;
+        markSet(MongoKey.GROUPS_CHAT_SUFFIX_KEY, chatSuffix);
+    }
+
+    @Override
+    @Synchronized
     public Set<String> getSettingKeys() {
-        return settings.keySet();
+        //A copy, so that nobody is iterating the settings while another thread changes them.
+        return Collections.unmodifiableSet(new HashSet<>(settings.keySet()));
     }
 
     @Override
+    @Synchronized
     public final <T> T getSettingValue(@NonNull String key, @NonNull Class<T> type, T defaultValue) {
-        T t; return (!this.settings.containsKey(key) || (t = safeCast(this.settings.get(key), type)) == null) ? defaultValue : t;
+        Object value = this.settings.get(key);
+        if (type.isInstance(value)) return type.cast(value);
+        //Mongo gives numbers back as whichever type it stored them as, so an Integer we stored may come back as a Double.
+        if (value instanceof Number) {
+            Number number = (Number) value;
+            if (type == Integer.class) return type.cast(number.intValue());
+            if (type == Long.class) return type.cast(number.longValue());
+            if (type == Double.class) return type.cast(number.doubleValue());
+            if (type == Float.class) return type.cast(number.floatValue());
+            if (type == Short.class) return type.cast(number.shortValue());
+            if (type == Byte.class) return type.cast(number.byteValue());
+        }
+        return defaultValue;
     }
 
     @Override
@@ -121,28 +370,84 @@ public class COfflineMongoPlayer implements COfflinePlayer {
     }
 
     @Override
+    @Synchronized
     public final void storeSettingValue(@NonNull String key, Object value) {
         this.settings.put(key, value);
+        forgetDecodedSetting(key);
+        markSet(MongoKey.SETTINGS_KEY + "." + key, value);
     }
 
     @Override
+    @Synchronized
     public final void removeSettingValue(@NonNull String key) {
         this.settings.remove(key);
+        forgetDecodedSetting(key);
+        markSet(MongoKey.SETTINGS_KEY + "." + key, null);
     }
 
     @Override
+    @Synchronized
+    public final <T> T getSetting(@NonNull SettingKey<T> key) {
+        DecodedSetting decoded = this.decodedSettings.get(key.getName());
+        //A key registered again (such as after a reload) may decode differently, so we only use what this exact key decoded.
+        if (decoded != null && decoded.getKey() == key) {
+            //noinspection unchecked
+            return (T) decoded.getValue();
+        }
+        Object stored = this.settings.get(key.getName());
+        T value = key.getDefaultValue();
+        if (stored != null) {
+            try {
+                value = key.getCodec().decode(stored);
+            } catch (IllegalArgumentException e) {
+                log.severe("Could not decode setting " + key.getName() + " for player " + this.lastKnownUsername + " - " + e.getMessage());
+            }
+        }
+        this.decodedSettings.put(key.getName(), new DecodedSetting(key, value));
+        return value;
+    }
+
+    @Override
+    @Synchronized
+    public final <T> void setSetting(@NonNull SettingKey<T> key, T value) {
+        if (value == null) {
+            removeSettingValue(key.getName());
+            return;
+        }
+        Object encoded = key.getCodec().encode(value);
+        this.settings.put(key.getName(), encoded);
+        this.decodedSettings.put(key.getName(), new DecodedSetting(key, value));
+        //Just this one setting goes out with the next save.
+        markSet(MongoKey.SETTINGS_KEY + "." + key.getName(), encoded);
+    }
+
+    private void forgetDecodedSetting(String key) {
+        this.decodedSettings.remove(key);
+    }
+
+    @Data
+    private static final class DecodedSetting {
+        private final SettingKey<?> key;
+        private final Object value;
+    }
+
+    @Override
+    @Synchronized
     public final boolean containsSetting(@NonNull String key) {
         return this.settings.containsKey(key);
     }
 
     @Override
+    @Synchronized
     public final void giveAsset(@NonNull Asset asset) {
-        this.assets.add(asset);
+        loadAssets().add(asset);
+        this.assetsDirty = true;
     }
 
     @Override
+    @Synchronized
     public final void removeAsset(@NonNull Asset asset) {
-        this.assets.remove(asset);
+        if (loadAssets().remove(asset)) this.assetsDirty = true;
     }
 
     @Override
@@ -158,17 +463,25 @@ public class COfflineMongoPlayer implements COfflinePlayer {
     @Override
     public void addToGroup(CGroup group) {
         if (this.groups.contains(group)) throw new IllegalArgumentException("This player is already a member of this group!");
-        this.groupIds.add(((CMongoGroup) group).getObjectId());
+        changeGroupIds(((CMongoGroup) group).getObjectId(), true);
         reloadPermissions();
     }
 
     @Override
     public void removeFromGroup(CGroup group) {
         if (!this.groups.contains(group)) throw new IllegalArgumentException("This player is not a member of this group!");
-        this.groupIds.remove(((CMongoGroup)group).getObjectId());
+        changeGroupIds(((CMongoGroup) group).getObjectId(), false);
         reloadPermissions();
     }
 
+    //Under the same lock as takePendingUpdate, so a save never sees the change without the flag, or the flag without the change.
+    @Synchronized
+    private void changeGroupIds(ObjectId groupId, boolean add) {
+        if (add) this.groupIds.add(groupId);
+        else this.groupIds.remove(groupId);
+        this.groupsDirty = true;
+    }
+
     @Override
     public List<CGroup> getGroups() {
         return new ArrayList<>(groups);
@@ -176,35 +489,27 @@ public class COfflineMongoPlayer implements COfflinePlayer {
 
     protected void updateFromDBObject(@NonNull DBObject player) {
         this.lastKnownUsername = getValueFrom(player, MongoKey.LAST_USERNAME_KEY, String.class);
-        this.uniqueIdentifier = UUID.fromString(getValueFrom(player, MongoKey.UUID_KEY, String.class));
+        this.uniqueIdentifier = getUUIDFrom(player, MongoKey.UUID_KEY);
+        this.stateId = getStateIdFrom(player);
         this.displayName = getValueFrom(player, MongoKey.DISPLAY_NAME, String.class);
         if (this.displayName != null) this.displayName = ColorSupplements.translateAlternateColorCodes('&', this.displayName);
         else this.displayName = null;
         this.firstTimeOnline = getValueFrom(player, MongoKey.FIRST_JOIN_KEY, Date.class);
         this.lastTimeOnline = getValueFrom(player, MongoKey.LAST_SEEN_KEY, Date.class);
-        Long time_online = getValueFrom(player, MongoKey.TIME_ONLINE_KEY, Long.class);
-        this.millisecondsOnline = time_online == null ? 0 : time_online;
+        //Anything that wrote this without going through us (or an older JSON journal) may have stored a small value as an Integer.
+        Number time_online = getValueFrom(player, MongoKey.TIME_ONLINE_KEY, Number.class);
+        this.millisecondsOnline = time_online == null ? 0 : time_online.longValue();
         List<String> ips = getListFor(getValueFrom(player, MongoKey.IPS_KEY, BasicDBList.class), String.class);
         this.knownIPAddresses = ips == null ? new ArrayList<String>() : ips;
         List<String> usernames = getListFor(getValueFrom(player, MongoKey.USERNAMES_KEY, BasicDBList.class), String.class);
         this.knownUsernames = usernames == null ? new ArrayList<String>() : usernames;
         @SuppressWarnings("unchecked") Map<String, Object> settings1 = getMapFor(getValueFrom(player, MongoKey.SETTINGS_KEY, BasicDBObject.class));
         this.settings = settings1 == null ? new HashMap<String, Object>() : settings1;
-        this.assets = new ArrayList<>();
-        List<DBObject> assets1 = getListFor(getValueFrom(player,MongoKey.ASSETS_KEY , BasicDBList.class), DBObject.class);
-        for (DBObject assetObject : assets1) {
-            String fqcn = getValueFrom(assetObject, MongoKey.FULLY_QUALIFIED_CLASS_NAME_KEY, String.class);
-            Class<?> assetClass;
-            try {
-                assetClass = Class.forName(fqcn);
-                if (!Asset.class.isAssignableFrom(assetClass)) throw new ClassNotFoundException("This class does not extend Asset!");
-                Map<String, Object> meta = getMapFor(getValueFrom(assetObject, MongoKey.META_KEY, DBObject.class));
-                Asset asset = (Asset) assetClass.getConstructor(COfflinePlayer.class, Map.class).newInstance(this, meta);
-                this.assets.add(asset);
-            } catch (InvocationTargetException | NoSuchMethodException | InstantiationException | IllegalAccessException | ClassNotFoundException e) {
-                log.severe("Could not load asset for player " + this.lastKnownUsername + " - " + fqcn + " - " + e.getMessage());
-            }
-        }
+        this.decodedSettings.clear();
+        BasicDBList assetList = getValueFrom(player, MongoKey.ASSETS_KEY, BasicDBList.class);
+        this.rawAssets = assetList == null ? new BasicDBList() : assetList;
+        this.assets = null;
+        this.unknownAssets = null;
         CPermissible permissibleDataFor = getPermissibileDataFor(player);
         this.chatColor = permissibleDataFor.getChatColor();
         this.chatPrefix = permissibleDataFor.getChatPrefix();
@@ -213,28 +518,71 @@ public class COfflineMongoPlayer implements COfflinePlayer {
         this.declaredPermissions = permissibleDataFor.getDeclaredPermissions();
         if (this.declaredPermissions == null) this.declaredPermissions = new HashMap<>();
         groupIds = getListFor(getValueFrom(player, MongoKey.USER_GROUPS_KEY, BasicDBList.class), ObjectId.class);
+        if (groupIds == null) groupIds = new ArrayList<>();
+        //We now match what's in the database, so there is nothing to save.
+        resetPendingUpdate();
+        Integer schemaVersion = getValueFrom(player, MongoKey.SCHEMA_VERSION_KEY, Integer.class);
+        if (schemaVersion == null || schemaVersion < MongoSchemaMigrator.SCHEMA_VERSION) {
+            //An older document, which we bring up to date the next time we save rather than waiting for the migrator.
+            markSet(MongoKey.UUID_KEY, this.uniqueIdentifier);
+            markSet(MongoKey.SCHEMA_VERSION_KEY, MongoSchemaMigrator.SCHEMA_VERSION);
+        }
         reloadPermissions0();
     }
 
+    //Documents that haven't been written since we started keeping an id don't have one, and never match anything.
+    static ObjectId getStateIdFrom(DBObject player) {
+        Object stateId = player.get(MongoKey.STATE_ID_KEY.toString());
+        return stateId instanceof ObjectId ? (ObjectId) stateId : null;
+    }
+
+    /**
+     * Takes the groups, permissions, and chat formatting from a newer copy of this player's document, such as after another server changed them.
+     * Groups, permissions, or chat formatting we've changed ourselves and not saved yet are kept, since they're newer than what we're given.
+     * @param player The player's document.
+     */
+    @Synchronized
+    void refreshPermissionDataFrom(@NonNull DBObject player) {
+        CPermissible permissibleDataFor = getPermissibileDataFor(player);
+        if (!pendingUpdate.changes(MongoKey.GROUPS_CHAT_COLOR_KEY.toString())) this.chatColor = permissibleDataFor.getChatColor();
+        if (!pendingUpdate.changes(MongoKey.GROUPS_CHAT_PREFIX_KEY.toString())) this.chatPrefix = permissibleDataFor.getChatPrefix();
+        if (!pendingUpdate.changes(MongoKey.GROUPS_CHAT_SUFFIX_KEY.toString())) this.chatSuffix = permissibleDataFor.getChatSuffix();
+        if (!pendingUpdate.changes(MongoKey.GROUPS_TABLIST_COLOR_KEY.toString())) this.tablistColor = permissibleDataFor.getTablistColor();
+        if (!permissionsDirty) {
+            this.declaredPermissions = permissibleDataFor.getDeclaredPermissions();
+            if (this.declaredPermissions == null) this.declaredPermissions = new HashMap<>();
+        }
+        if (!groupsDirty) {
+            List<ObjectId> groupIds = getListFor(getValueFrom(player, MongoKey.USER_GROUPS_KEY, BasicDBList.class), ObjectId.class);
+            this.groupIds = groupIds == null ? new ArrayList<ObjectId>() : groupIds;
+        }
+        reloadPermissions();
+    }
+
     @Override
     public void setPermission(String permission, Boolean value) {
-        this.declaredPermissions.put(permission, value);
+        changeDeclaredPermission(permission, value);
         reloadPermissions();
     }
 
     @Override
     public void unsetPermission(String permission) {
-        this.declaredPermissions.remove(permission);
+        changeDeclaredPermission(permission, null);
         reloadPermissions();
     }
 
+    //Under the same lock as takePendingUpdate, for the same reason as changeGroupIds.
+    @Synchronized
+    private void changeDeclaredPermission(String permission, Boolean value) {
+        if (value != null) {
+            this.declaredPermissions.put(permission, value);
+            this.permissionsDirty = true;
+        } else if (this.declaredPermissions.remove(permission) != null) this.permissionsDirty = true;
+    }
+
     @Override
     public boolean hasPermission(String permission) {
-        if (allPermissions.containsKey(permission) && allPermissions.get(permission))
-            return true;
-        //wildcard support
-        String[] parts = permission.split(".");
-        return parts.length > 1 && hasPermission(Joiner.on('.').join(Arrays.copyOfRange(parts, 0, parts.length - 2)) + ".*");
+        return permissionTrie.has(permission);
     }
 
     @Override
@@ -260,6 +608,8 @@ public class COfflineMongoPlayer implements COfflinePlayer {
         this.primaryGroup = null;
         CMongoGroupRepository groupRepository = playerRepository.groupRepository;
         if (groupRepository == null) throw new IllegalStateException("You need to setup the group repository for permissions to work!");
+        //Read before resolving, so that groups resolved again while we're in here leave us out of date instead of looking current.
+        this.permissionsGeneration = groupRepository.getPermissionsGeneration();
         if (groupIds != null) {
             for (ObjectId groupId : groupIds) {
                 CGroup groupByObjectId = groupRepository.getGroupByObjectId(groupId);
@@ -267,12 +617,16 @@ public class COfflineMongoPlayer implements COfflinePlayer {
                 this.groups.add(groupByObjectId);
             }
         }
-        //Then we need to reload our permissions map.
-        allPermissions = new HashMap<>(declaredPermissions);
+        //Then we need to reload our permissions, which are shared with everyone in the same groups unless we have some of our own.
         CGroup defaultGroup = groupRepository.getDefaultGroup();
-        if (groups.size() == 0 && defaultGroup != null) processGroupInternal(defaultGroup);
-        for (CGroup group : groups) {
-            processGroupInternal(group);
+        List<CGroup> permissionGroups = groups.size() == 0 && defaultGroup != null ? Collections.singletonList(defaultGroup) : this.groups;
+        ResolvedPermissions resolvedPermissions = groupRepository.getResolvedPermissions(permissionGroups);
+        if (declaredPermissions.isEmpty()) {
+            allPermissions = resolvedPermissions.getPermissions();
+            permissionTrie = resolvedPermissions.getTrie();
+        } else {
+            allPermissions = new PermissionOverlayMap(resolvedPermissions.getPermissions(), new HashMap<>(declaredPermissions));
+            permissionTrie = PermissionTrie.compile(allPermissions);
         }
 
         //And now we get our primary group
@@ -294,15 +648,6 @@ public class COfflineMongoPlayer implements COfflinePlayer {
 
 
 
-    //Process a group into our allPermissions map, use care when calling as this can mess things up really bad.
-    protected final synchronized void processGroupInternal(CGroup group) {
-        Map<String, Boolean> groupPermissions = group.getAllPermissions();
-        for (Map.Entry<String, Boolean> permission : groupPermissions.entrySet()) {
-            String permNode = permission.getKey();
-            if (!allPermissions.containsKey(permNode) || !allPermissions.get(permNode)) allPermissions.put(permNode, permission.getValue());
-        }
-    }
-
     @Override
     public boolean isDirectlyInGroup(CGroup group) {
         return groups.contains(group);
@@ -317,9 +662,11 @@ public class COfflineMongoPlayer implements COfflinePlayer {
     public void setDisplayName(String string) {
         if (string == null) {
             this.displayName = null;
+            markSet(MongoKey.DISPLAY_NAME, null);
             return;
         }
         this.displayName = ColorSupplements.translateAlternateColorCodes('&', string);
+        markSet(MongoKey.DISPLAY_NAME, this.displayName);
     }
 
     @Override
@@ -330,6 +677,8 @@ public class COfflineMongoPlayer implements COfflinePlayer {
     @Override
     public void logIP(InetAddress address) {
         String hostAddress = address.getHostAddress();
-        if (!knownIPAddresses.contains(hostAddress)) knownIPAddresses.add(hostAddress);
+        if (knownIPAddresses.contains(hostAddress)) return;
+        knownIPAddresses.add(hostAddress);
+        markAddToSet(MongoKey.IPS_KEY, hostAddress);
     }
 }
@@ -0,0 +1,126 @@
+package net.cogzmc.core.player.mongo;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import lombok.Data;
+import lombok.Synchronized;
+import lombok.extern.java.Log;
+
+import java.util.*;
+
+/**
+ * Keeps track of every index that our queries rely on, and makes sure that they exist.
+ *
+ * Anything that queries a collection should declare the indexes it needs using {@link #declareIndex(String, com.mongodb.DBObject)}, and then call {@link #ensureIndexes(String)}.
+ * Missing indexes are built in the background so that starting up doesn't lock the collection.
+ */
+@Log
+public final class MongoIndexManager {
+    private final CMongoDatabase database;
+    //Collection names (without the prefix) mapped to the indexes declared for them.
+    private final Map<String, Set<IndexDeclaration>> declaredIndexes = new LinkedHashMap<>();
+
+    MongoIndexManager(CMongoDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Declares the indexes used by the users, groups, and IP accounts collections.
+     */
+    public void declareCoreIndexes() {
+        String users = MongoKey.USERS_COLLETION.toString();
+        declareIndex(users, new BasicDBObject(MongoKey.UUID_KEY.toString(), 1));
+        declareIndex(users, new BasicDBObject(MongoKey.LAST_USERNAME_LOWER_KEY.toString(), 1));
+        declareIndex(users, new BasicDBObject(MongoKey.USERNAMES_LOWER_KEY.toString(), 1));
+        declareIndex(users, new BasicDBObject(MongoKey.IPS_KEY.toString(), 1));
+        //Deleting a group finds all of its members.
+        declareIndex(users, new BasicDBObject(MongoKey.USER_GROUPS_KEY.toString(), 1));
+        declareIndex(MongoKey.GROUPS_COLLECTION.toString(), new BasicDBObject(MongoKey.GROUPS_NAME_KEY.toString(), 1));
+        //Each IP and player pair is only stored once, and can be looked up from either side.
+        String ipAccounts = MongoKey.IP_ACCOUNTS_COLLECTION.toString();
+        declareIndex(ipAccounts, new BasicDBObject(MongoKey.IP_ACCOUNTS_IP_KEY.toString(), 1).append(MongoKey.UUID_KEY.toString(), 1), true);
+        declareIndex(ipAccounts, new BasicDBObject(MongoKey.UUID_KEY.toString(), 1).append(MongoKey.IP_ACCOUNTS_LAST_SEEN_KEY.toString(), -1));
+    }
+
+    public void declareIndex(String collection, DBObject keys) {
+        declareIndex(collection, keys, false);
+    }
+
+    @Synchronized
+    public void declareIndex(String collection, DBObject keys, boolean unique) {
+        Set<IndexDeclaration> indexes = declaredIndexes.get(collection);
+        if (indexes == null) {
+            indexes = new LinkedHashSet<>();
+            declaredIndexes.put(collection, indexes);
+        }
+        indexes.add(new IndexDeclaration(new BasicDBObject(keys.toMap()), unique));
+    }
+
+    /**
+     * Checks every collection we have declared indexes for.
+     */
+    public void ensureIndexes() {
+        for (String collection : getDeclaredCollections()) ensureIndexes(collection);
+    }
+
+    /**
+     * Checks that every index declared for this collection exists, and builds any that are missing.
+     * @param collectionName The name of the collection, without the collection prefix.
+     * @return The number of indexes that had to be built.
+     */
+    public int ensureIndexes(String collectionName) {
+        DBCollection collection = database.getCollection(collectionName);
+        List<DBObject> existingKeys = new ArrayList<>();
+        for (DBObject indexInfo : collection.getIndexInfo()) existingKeys.add((DBObject) indexInfo.get("key"));
+        int created = 0;
+        for (IndexDeclaration index : getDeclaredIndexes(collectionName)) {
+            if (hasIndex(existingKeys, index.getKeys())) continue;
+            BasicDBObject options = new BasicDBObject("background", true);
+            if (index.isUnique()) options.put("unique", true);
+            try {
+                collection.createIndex(index.getKeys(), options);
+                created++;
+                log.info("Created index " + index.getKeys() + " on " + collection.getName());
+            } catch (MongoException e) {
+                log.severe("Could not create index " + index.getKeys() + " on " + collection.getName() + " - " + e.getMessage());
+            }
+        }
+        return created;
+    }
+
+    //Index keys are ordered, so {a: 1, b: 1} is not the same index as {b: 1, a: 1}.
+    private static boolean hasIndex(List<DBObject> existingKeys, DBObject keys) {
+        for (DBObject existing : existingKeys) {
+            if (existing == null || !new ArrayList<>(existing.keySet()).equals(new ArrayList<>(keys.keySet()))) continue;
+            boolean matches = true;
+            for (String key : keys.keySet()) {
+                Object existingDirection = existing.get(key), direction = keys.get(key);
+                //Directions come back as doubles sometimes, so we compare them as numbers where we can.
+                if (existingDirection instanceof Number && direction instanceof Number) matches = ((Number) existingDirection).intValue() == ((Number) direction).intValue();
+                else matches = String.valueOf(existingDirection).equals(String.valueOf(direction));
+                if (!matches) break;
+            }
+            if (matches) return true;
+        }
+        return false;
+    }
+
+    @Synchronized
+    private Set<String> getDeclaredCollections() {
+        return new LinkedHashSet<>(declaredIndexes.keySet());
+    }
+
+    @Synchronized
+    private Set<IndexDeclaration> getDeclaredIndexes(String collection) {
+        Set<IndexDeclaration> indexes = declaredIndexes.get(collection);
+        return indexes == null ? Collections.<IndexDeclaration>emptySet() : new LinkedHashSet<>(indexes);
+    }
+
+    @Data
+    private static final class IndexDeclaration {
+        private final DBObject keys;
+        private final boolean unique;
+    }
+}
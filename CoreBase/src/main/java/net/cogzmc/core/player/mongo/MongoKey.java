@@ -6,9 +6,14 @@ package net.cogzmc.core.player.mongo;
 public enum MongoKey {
     USERS_COLLETION("users"),
     UUID_KEY("uuid"),
+    SCHEMA_VERSION_KEY("schema_version"),
+    SCHEMA_MIGRATION_ERROR_KEY("schema_migration_error"),
+    STATE_ID_KEY("state_id"),
     USERNAMES_KEY("usernames"),
     ID_KEY("_id"),
     LAST_USERNAME_KEY("last_username"),
+    LAST_USERNAME_LOWER_KEY("last_username_lower"),
+    USERNAMES_LOWER_KEY("usernames_lower"),
     FIRST_JOIN_KEY("first_join"),
     LAST_SEEN_KEY("last_seen"),
     TIME_ONLINE_KEY("time_online"),
@@ -29,8 +34,20 @@ public enum MongoKey {
     GROUPS_DEFAULT_MARKER("default_marker"),
     GROUPS_PRIORITY_KEY("priority"),
     GROUPS_CHAT_SUFFIX_KEY("suffix"),
+    GROUPS_REVISION_KEY("revision"),
+    REVISIONS_COLLECTION("revisions"),
+    REVISIONS_GROUPS_ID("groups"),
+    REVISION_KEY("revision"),
     PERMISSION_PERM("permission"),
-    PERMISSION_VALUE("value");
+    PERMISSION_VALUE("value"),
+    IP_ACCOUNTS_COLLECTION("ip_accounts"),
+    IP_ACCOUNTS_IP_KEY("ip"),
+    IP_ACCOUNTS_FIRST_SEEN_KEY("first_seen"),
+    IP_ACCOUNTS_LAST_SEEN_KEY("last_seen"),
+    MIGRATIONS_COLLECTION("migrations"),
+    MIGRATIONS_IP_ACCOUNTS_ID("ip_accounts_backfill"),
+    MIGRATIONS_LOWERCASE_USERNAMES_ID("lowercase_usernames_backfill"),
+    MIGRATION_COMPLETED_KEY("completed");
     private final String value;
     MongoKey(String value) {
         this.value = value;
@@ -0,0 +1,107 @@
+package net.cogzmc.core.player.mongo;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import lombok.extern.java.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Brings documents written by older versions up to {@link #SCHEMA_VERSION} in the background.
+ *
+ * Version 2 stores UUIDs as BSON binary instead of 36 character strings. Until every document has been migrated, readers should use {@link net.cogzmc.core.player.mongo.MongoUtils#getUUIDFrom(com.mongodb.DBObject, Object)}
+ * and query with {@link net.cogzmc.core.player.mongo.MongoUtils#getUUIDQuery(java.util.UUID)}, which accept both forms.
+ *
+ * Documents are rewritten in small batches with a pause in between, so that the migration never competes with the server for the database.
+ * A document we can't migrate (such as one with a UUID that doesn't parse) is logged and marked with the error instead, so it doesn't hold up the rest.
+ */
+@Log
+public final class MongoSchemaMigrator {
+    public static final int SCHEMA_VERSION = 2;
+    private static final int BATCH_SIZE = 200;
+    private static final long BATCH_DELAY_MILLIS = 1000;
+
+    private final CMongoDatabase database;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Core Schema Migrator");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    MongoSchemaMigrator(CMongoDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Queues a collection to be migrated. Collections are migrated one at a time, in the order they were queued.
+     * @param collectionName The name of the collection, without the collection prefix.
+     * @param uuidKeys The keys in each document that hold a UUID.
+     */
+    public void migrate(final String collectionName, final String... uuidKeys) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int migrated = 0, batch;
+                try {
+                    while ((batch = migrateBatch(collectionName, uuidKeys)) > 0) {
+                        migrated += batch;
+                        Thread.sleep(BATCH_DELAY_MILLIS);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (MongoException e) {
+                    log.severe("Could not migrate " + collectionName + " " + e.getMessage());
+                }
+                if (migrated > 0) log.info("Migrated " + migrated + " documents in " + collectionName + " to schema version " + SCHEMA_VERSION);
+            }
+        });
+    }
+
+    /**
+     * Migrates a single batch of documents.
+     * @return The number of documents that were migrated, which is zero once there is nothing left to do.
+     */
+    int migrateBatch(String collectionName, String... uuidKeys) {
+        DBCollection collection = database.getCollection(collectionName);
+        //Matches documents with no version at all, as well as older versions.
+        DBObject outdated = new BasicDBObject(MongoKey.SCHEMA_VERSION_KEY.toString(), new BasicDBObject("$not", new BasicDBObject("$gte", SCHEMA_VERSION)));
+        BasicDBObject fields = new BasicDBObject(MongoKey.ID_KEY.toString(), 1);
+        for (String uuidKey : uuidKeys) fields.put(uuidKey, 1);
+        List<DBObject> documents = new ArrayList<>();
+        for (DBObject document : collection.find(outdated, fields).limit(BATCH_SIZE)) documents.add(document);
+        for (DBObject document : documents) {
+            BasicDBObject set = new BasicDBObject(MongoKey.SCHEMA_VERSION_KEY.toString(), SCHEMA_VERSION);
+            try {
+                for (String uuidKey : uuidKeys) {
+                    UUID uuid = MongoUtils.getUUIDFrom(document, uuidKey);
+                    if (uuid != null) set.put(uuidKey, uuid);
+                }
+            } catch (IllegalArgumentException e) {
+                //We leave what was there alone, and mark the document so that we don't pick it up again in the next batch.
+                log.severe("Could not migrate " + document.get(MongoKey.ID_KEY.toString()) + " in " + collectionName + " " + e.getMessage());
+                set = new BasicDBObject(MongoKey.SCHEMA_VERSION_KEY.toString(), SCHEMA_VERSION).append(MongoKey.SCHEMA_MIGRATION_ERROR_KEY.toString(), String.valueOf(e.getMessage()));
+            }
+            //Only if nobody has written a newer version since we read it.
+            DBObject query = new BasicDBObject(MongoKey.ID_KEY.toString(), document.get(MongoKey.ID_KEY.toString())).append(MongoKey.SCHEMA_VERSION_KEY.toString(), outdated.get(MongoKey.SCHEMA_VERSION_KEY.toString()));
+            collection.update(query, new BasicDBObject("$set", set));
+        }
+        return documents.size();
+    }
+
+    /**
+     * Stops migrating. Anything that hasn't been migrated yet is picked up the next time the server starts.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
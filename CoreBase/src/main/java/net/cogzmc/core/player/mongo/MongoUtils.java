@@ -1,5 +1,7 @@
 package net.cogzmc.core.player.mongo;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
 import com.mongodb.BasicDBObjectBuilder;
@@ -10,6 +12,9 @@ import net.cogzmc.core.player.CPermissible;
 import java.util.*;
 
 public final class MongoUtils {
+    //Most players and groups have the same permission nodes, so every copy we read shares one string per node.
+    private static final Interner<String> PERMISSION_NODES = Interners.newWeakInterner();
+
     public static BasicDBObjectBuilder getObjectForPermissible(CPermissible permissible) {
         BasicDBObjectBuilder builder = new BasicDBObjectBuilder();
         builder.add(MongoKey.GROUPS_TABLIST_COLOR_KEY.toString(), permissible.getTablistColor() == null ? null : permissible.getTablistColor());
@@ -38,7 +43,10 @@ public final class MongoUtils {
         final Map<String, Boolean> declaredPermissions = new HashMap<>();
         List<Map> permissionObjects = getListFor(getValueFrom(object, MongoKey.GROUPS_PERMISSIONS_KEY, BasicDBList.class), Map.class);
         for (Map permissionObject : permissionObjects) {
-            declaredPermissions.put((String) permissionObject.get(MongoKey.PERMISSION_PERM.toString()), (Boolean) permissionObject.get(MongoKey.PERMISSION_VALUE.toString()));
+            String permission = (String) permissionObject.get(MongoKey.PERMISSION_PERM.toString());
+            Boolean value = (Boolean) permissionObject.get(MongoKey.PERMISSION_VALUE.toString());
+            if (permission == null || value == null) continue;
+            declaredPermissions.put(PERMISSION_NODES.intern(permission), value);
         }
         final String cColor = getValueFrom(object, MongoKey.GROUPS_CHAT_COLOR_KEY, String.class);
         final String tColor = getValueFrom(object, MongoKey.GROUPS_TABLIST_COLOR_KEY, String.class);
@@ -119,6 +127,38 @@ public final class MongoUtils {
             }
         };
     }
+    /**
+     * Reads a {@link java.util.UUID} that may be stored either as BSON binary (schema version 2 onwards) or as a string (older documents).
+     * @param object The document to read from.
+     * @param key The key the UUID is stored under.
+     * @return The UUID, or {@code null} if there is none.
+     */
+    public static UUID getUUIDFrom(DBObject object, @NonNull Object key) {
+        if (object == null) return null;
+        Object value = object.get(key.toString());
+        if (value instanceof UUID) return (UUID) value;
+        if (value instanceof String) return UUID.fromString((String) value);
+        return null;
+    }
+
+    /**
+     * Gets a query value that matches a {@link java.util.UUID} in either of the forms we have stored it in, while documents are being migrated.
+     * @param uuid The UUID to match.
+     * @return An {@code $in} that can be used as the value of a query on a UUID field.
+     */
+    public static DBObject getUUIDQuery(UUID uuid) {
+        return getUUIDsQuery(Collections.singletonList(uuid));
+    }
+
+    public static DBObject getUUIDsQuery(Collection<UUID> uuids) {
+        BasicDBList values = new BasicDBList();
+        for (UUID uuid : uuids) {
+            values.add(uuid);
+            values.add(uuid.toString());
+        }
+        return new BasicDBObject("$in", values);
+    }
+
     public static <T> T getValueFrom(DBObject object, @NonNull Object key, Class<T> clazz) {
         return getValueFrom(object, key.toString(), clazz);
     }
@@ -179,6 +219,26 @@ public final class MongoUtils {
         return value;
     }
 
+    /**
+     * Copies maps and lists all the way down, leaving anything else as is. The copies are made of the same types that {@link #getMapFor(com.mongodb.DBObject)} and
+     * {@link #getListFor(com.mongodb.BasicDBList, Class)} would give back for the value written into a document.
+     * @param value The value to copy.
+     * @return The copy.
+     */
+    public static Object deepCopy(Object value) {
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<>();
+            for (Object o : (List<?>) value) copy.add(deepCopy(o));
+            return copy;
+        }
+        if (value instanceof Map) {
+            Map<String, Object> copy = new HashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) copy.put(entry.getKey().toString(), deepCopy(entry.getValue()));
+            return copy;
+        }
+        return value;
+    }
+
     public static Map<String, Object> getMapFor(DBObject object) {
         return getMapFor(object, Object.class);
     }
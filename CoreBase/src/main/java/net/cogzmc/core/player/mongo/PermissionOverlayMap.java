@@ -0,0 +1,88 @@
+package net.cogzmc.core.player.mongo;
+
+import java.util.*;
+
+/**
+ * A player's own permissions laid over the {@link net.cogzmc.core.player.mongo.ResolvedPermissions} they share with everyone in the same groups, without
+ * copying the shared permissions. Where both have a permission, {@code true} from either wins, the same as when groups are merged.
+ */
+final class PermissionOverlayMap extends AbstractMap<String, Boolean> {
+    private final Map<String, Boolean> base;
+    private final Map<String, Boolean> overlay;
+    private final int size;
+
+    PermissionOverlayMap(Map<String, Boolean> base, Map<String, Boolean> overlay) {
+        this.base = base;
+        this.overlay = overlay;
+        int size = base.size();
+        for (String permission : overlay.keySet()) {
+            if (!base.containsKey(permission)) size++;
+        }
+        this.size = size;
+    }
+
+    @Override
+    public Boolean get(Object key) {
+        Boolean overlayValue = overlay.get(key), baseValue = base.get(key);
+        if (overlayValue == null) return baseValue;
+        if (baseValue == null) return overlayValue;
+        return overlayValue || baseValue;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return overlay.containsKey(key) || base.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Boolean>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Boolean>>() {
+            @Override
+            public Iterator<Map.Entry<String, Boolean>> iterator() {
+                final Iterator<String> baseKeys = base.keySet().iterator();
+                final Iterator<String> overlayKeys = overlay.keySet().iterator();
+                return new Iterator<Map.Entry<String, Boolean>>() {
+                    private String next = advance();
+
+                    //Everything in the base, and then whatever is only in the overlay.
+                    private String advance() {
+                        if (baseKeys.hasNext()) return baseKeys.next();
+                        while (overlayKeys.hasNext()) {
+                            String key = overlayKeys.next();
+                            if (!base.containsKey(key)) return key;
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next != null;
+                    }
+
+                    @Override
+                    public Map.Entry<String, Boolean> next() {
+                        if (next == null) throw new NoSuchElementException();
+                        String key = next;
+                        next = advance();
+                        return new SimpleImmutableEntry<>(key, get(key));
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
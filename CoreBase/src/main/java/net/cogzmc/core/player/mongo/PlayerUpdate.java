@@ -0,0 +1,266 @@
+package net.cogzmc.core.player.mongo;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import lombok.Getter;
+import lombok.ToString;
+import org.bson.types.ObjectId;
+
+import java.util.*;
+
+/**
+ * Represents the changes that have been made to a player's document since it was last written to the database.
+ *
+ * An update is either a full document (for players who have never been saved) or a set of {@code $set}, {@code $unset},
+ * and {@code $addToSet} operations. None of these do anything more when sent twice, so an update can always be safely sent again. Keys may be dotted paths (such as {@code settings.key}) in the same way Mongo accepts them.
+ *
+ * Updates can be merged, so that a later update for the same player is folded into an earlier one without losing any
+ * of the changes from either.
+ */
+@ToString(of = {"objectId", "uuid", "document", "sets", "unsets", "additions"})
+final class PlayerUpdate {
+    private static final String JOURNAL_DOCUMENT_KEY = "document";
+    private static final String JOURNAL_UPDATE_KEY = "update";
+
+    @Getter private final ObjectId objectId;
+    @Getter private final UUID uuid;
+    private DBObject document;
+    private final Map<String, Object> sets = new LinkedHashMap<>();
+    private final Set<String> unsets = new LinkedHashSet<>();
+    private final Map<String, List<Object>> additions = new LinkedHashMap<>();
+
+    PlayerUpdate(ObjectId objectId, UUID uuid) {
+        this.objectId = objectId;
+        this.uuid = uuid;
+    }
+
+    static PlayerUpdate forDocument(ObjectId objectId, UUID uuid, DBObject document) {
+        PlayerUpdate update = new PlayerUpdate(objectId, uuid);
+        update.document = document;
+        return update;
+    }
+
+    void set(String key, Object value) {
+        if (document != null) {
+            putPath(document, key, value);
+            return;
+        }
+        unsets.remove(key);
+        additions.remove(key);
+        sets.put(key, value);
+    }
+
+    void unset(String key) {
+        if (document != null) {
+            removePath(document, key);
+            return;
+        }
+        sets.remove(key);
+        additions.remove(key);
+        unsets.add(key);
+    }
+
+    void addToSet(String key, Object value) {
+        if (document != null) {
+            addIfAbsent(getListAt(document, key), value);
+            return;
+        }
+        //If we're replacing the whole list anyways, we can just put the value into the list we're replacing it with.
+        Object setValue = sets.get(key);
+        if (setValue instanceof List) {
+            //noinspection unchecked
+            addIfAbsent((List<Object>) setValue, value);
+            return;
+        }
+        unsets.remove(key);
+        List<Object> values = additions.get(key);
+        if (values == null) {
+            values = new ArrayList<>();
+            additions.put(key, values);
+        }
+        addIfAbsent(values, value);
+    }
+
+    private static void addIfAbsent(List<Object> list, Object value) {
+        if (!list.contains(value)) list.add(value);
+    }
+
+    boolean isEmpty() {
+        return document == null && sets.isEmpty() && unsets.isEmpty() && additions.isEmpty();
+    }
+
+    boolean isReplacement() {
+        return document != null;
+    }
+
+    /**
+     * Checks if this update changes any of the given top level keys (or anything below them). Replacements are for players who have never been saved, and change nothing anyone else has.
+     * @param keys The top level keys.
+     * @return {@code true} if any of the keys are changed.
+     */
+    boolean changesAny(Collection<String> keys) {
+        if (document != null) return false;
+        for (String key : sets.keySet()) if (keys.contains(getTopLevelKey(key))) return true;
+        for (String key : unsets) if (keys.contains(getTopLevelKey(key))) return true;
+        for (String key : additions.keySet()) if (keys.contains(getTopLevelKey(key))) return true;
+        return false;
+    }
+
+    /**
+     * Checks if this update has a value for the given top level key which hasn't been written yet. Replacements hold every key.
+     * @param key The top level key.
+     * @return {@code true} if the key is changed, or this update replaces the whole document.
+     */
+    boolean changes(String key) {
+        return document != null || changesAny(Collections.singleton(key));
+    }
+
+    private static String getTopLevelKey(String path) {
+        int dot = path.indexOf('.');
+        return dot == -1 ? path : path.substring(0, dot);
+    }
+
+    /**
+     * Folds a later update for the same player into this one. Operations in {@code later} win over operations in this update.
+     * @param later The update that happened after this one.
+     */
+    void merge(PlayerUpdate later) {
+        if (later.document != null) {
+            this.document = later.document;
+            sets.clear();
+            unsets.clear();
+            additions.clear();
+            return;
+        }
+        for (Map.Entry<String, Object> entry : later.sets.entrySet()) set(entry.getKey(), entry.getValue());
+        for (String key : later.unsets) unset(key);
+        for (Map.Entry<String, List<Object>> entry : later.additions.entrySet()) {
+            for (Object value : entry.getValue()) addToSet(entry.getKey(), value);
+        }
+    }
+
+    /**
+     * Applies this update to a document we've read from the database, as if the update had already been written.
+     * @param target The document to modify.
+     */
+    void applyTo(DBObject target) {
+        if (document != null) {
+            for (String key : new ArrayList<>(target.keySet())) target.removeField(key);
+            //Copy so that later changes to this update don't leak into whoever is reading the target.
+            target.putAll(document instanceof BasicDBObject ? (DBObject) ((BasicDBObject) document).copy() : document);
+            return;
+        }
+        for (Map.Entry<String, Object> entry : sets.entrySet()) putPath(target, entry.getKey(), entry.getValue());
+        for (String key : unsets) removePath(target, key);
+        for (Map.Entry<String, List<Object>> entry : additions.entrySet()) {
+            List<Object> list = getListAt(target, entry.getKey());
+            for (Object value : entry.getValue()) addIfAbsent(list, value);
+        }
+    }
+
+    DBObject getQuery() {
+        return new BasicDBObject(MongoKey.ID_KEY.toString(), objectId);
+    }
+
+    /**
+     * Gets the object that should be passed to Mongo to perform this update. For a replacement this is the document itself.
+     * @return The update or replacement document.
+     */
+    DBObject getUpdateObject() {
+        if (document != null) return document;
+        BasicDBObject update = new BasicDBObject();
+        if (!sets.isEmpty()) update.put("$set", MongoUtils.getDBObjectFor(sets));
+        if (!unsets.isEmpty()) {
+            BasicDBObject unsetObject = new BasicDBObject();
+            for (String key : unsets) unsetObject.put(key, "");
+            update.put("$unset", unsetObject);
+        }
+        if (!additions.isEmpty()) {
+            BasicDBObject addToSetObject = new BasicDBObject();
+            for (Map.Entry<String, List<Object>> entry : additions.entrySet()) {
+                addToSetObject.put(entry.getKey(), new BasicDBObject("$each", MongoUtils.getDBListFor(entry.getValue())));
+            }
+            update.put("$addToSet", addToSetObject);
+        }
+        return update;
+    }
+
+    /**
+     * Encodes this update so that it can be written to a journal and read back with {@link #fromJournalEntry(com.mongodb.DBObject)}.
+     * @return A document describing this update.
+     */
+    DBObject toJournalEntry() {
+        BasicDBObject entry = new BasicDBObject();
+        entry.put(MongoKey.ID_KEY.toString(), objectId);
+        entry.put(MongoKey.UUID_KEY.toString(), uuid.toString());
+        if (document != null) entry.put(JOURNAL_DOCUMENT_KEY, document);
+        else entry.put(JOURNAL_UPDATE_KEY, getUpdateObject());
+        return entry;
+    }
+
+    static PlayerUpdate fromJournalEntry(DBObject entry) {
+        ObjectId objectId = (ObjectId) entry.get(MongoKey.ID_KEY.toString());
+        UUID uuid = UUID.fromString((String) entry.get(MongoKey.UUID_KEY.toString()));
+        DBObject document = (DBObject) entry.get(JOURNAL_DOCUMENT_KEY);
+        if (document != null) return forDocument(objectId, uuid, document);
+        PlayerUpdate update = new PlayerUpdate(objectId, uuid);
+        DBObject updateObject = (DBObject) entry.get(JOURNAL_UPDATE_KEY);
+        DBObject setObject = (DBObject) updateObject.get("$set");
+        if (setObject != null) for (String key : setObject.keySet()) update.set(key, setObject.get(key));
+        DBObject unsetObject = (DBObject) updateObject.get("$unset");
+        if (unsetObject != null) for (String key : unsetObject.keySet()) update.unset(key);
+        //Journals written before we used $addToSet have $push, which we replay as $addToSet so replaying can't add anything twice.
+        for (String operator : new String[]{"$addToSet", "$push"}) {
+            DBObject additionObject = (DBObject) updateObject.get(operator);
+            if (additionObject == null) continue;
+            for (String key : additionObject.keySet()) {
+                for (Object value : (List<?>) ((DBObject) additionObject.get(key)).get("$each")) update.addToSet(key, value);
+            }
+        }
+        return update;
+    }
+
+    private static void putPath(DBObject object, String path, Object value) {
+        int dot = path.indexOf('.');
+        if (dot == -1) {
+            object.put(path, MongoUtils.applyTypeFiltersForDB(value));
+            return;
+        }
+        putPath(getObjectAt(object, path.substring(0, dot)), path.substring(dot + 1), value);
+    }
+
+    private static void removePath(DBObject object, String path) {
+        int dot = path.indexOf('.');
+        if (dot == -1) {
+            object.removeField(path);
+            return;
+        }
+        Object child = object.get(path.substring(0, dot));
+        if (child instanceof DBObject) removePath((DBObject) child, path.substring(dot + 1));
+    }
+
+    private static DBObject getObjectAt(DBObject object, String key) {
+        Object child = object.get(key);
+        if (child instanceof DBObject) return (DBObject) child;
+        BasicDBObject newChild = new BasicDBObject();
+        object.put(key, newChild);
+        return newChild;
+    }
+
+    private static List<Object> getListAt(DBObject object, String path) {
+        int dot = path.lastIndexOf('.');
+        DBObject parent = object;
+        String key = path;
+        if (dot != -1) {
+            String parentPath = path.substring(0, dot);
+            for (String part : parentPath.split("\\.")) parent = getObjectAt(parent, part);
+            key = path.substring(dot + 1);
+        }
+        Object list = parent.get(key);
+        if (list instanceof BasicDBList) return (BasicDBList) list;
+        BasicDBList newList = new BasicDBList();
+        parent.put(key, newList);
+        return newList;
+    }
+}
@@ -0,0 +1,344 @@
+package net.cogzmc.core.player.mongo;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.util.JSON;
+import lombok.extern.java.Log;
+import org.bson.BasicBSONEncoder;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sits between {@link net.cogzmc.core.player.mongo.CMongoPlayerRepository#savePlayerData(net.cogzmc.core.player.COfflinePlayer)} and Mongo, so that saving a player never has to wait on the network.
+ *
+ * Every update is appended to a journal file and synced to disk before it is accepted, then merged with anything else pending for the same player.
+ * The journal is a run of BSON documents (which start with their own length), so every value reads back as exactly the type it was written as.
+ * A background thread writes the pending updates to Mongo in bulk and compacts the journal once they are written.
+ * Anything left in the journal (because Mongo was unavailable, or the server crashed) is read back and written the next time the queue is created.
+ */
+@Log
+final class PlayerWriteBehindQueue {
+    private static final long DRAIN_INTERVAL_MILLIS = 1000;
+    //Journals from before we used BSON are lines of JSON.
+    private static final Charset LEGACY_JOURNAL_CHARSET = Charset.forName("UTF-8");
+
+    private final CMongoPlayerRepository repository;
+    private final File journalFile;
+    private final File legacyJournalFile;
+    private final Object lock = new Object();
+    //Updates that have been journaled but not written yet, in the order they were first queued.
+    private final Map<UUID, PlayerUpdate> pendingUpdates = new LinkedHashMap<>();
+    //Updates the drainer is currently writing. These are still in the journal until the write succeeds.
+    private final Map<UUID, PlayerUpdate> inFlightUpdates = new HashMap<>();
+    private final ScheduledExecutorService drainer;
+    private FileOutputStream journal;
+    private boolean failing;
+
+    PlayerWriteBehindQueue(CMongoPlayerRepository repository, File journalFile, File legacyJournalFile) throws IOException {
+        this.repository = repository;
+        this.journalFile = journalFile;
+        this.legacyJournalFile = legacyJournalFile;
+        replayLegacyJournal();
+        replayJournal();
+        synchronized (lock) {
+            //Rewrite the journal so that anything we couldn't read is dropped, and everything we could read is already coalesced.
+            compactJournal();
+        }
+        //Everything from the legacy journal is in the new one now.
+        if (legacyJournalFile.exists() && !legacyJournalFile.delete()) log.severe("Could not delete " + legacyJournalFile.getName() + ", it will be replayed again next startup.");
+        if (!pendingUpdates.isEmpty()) log.info("Replaying " + pendingUpdates.size() + " unsaved players from " + journalFile.getName());
+        this.drainer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Core Player Write-Behind");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        drainer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    //Keep going as long as batches succeed and there is something left to write.
+                    while (drain() && hasPendingUpdates()) {}
+                } catch (Throwable t) {
+                    log.severe("Could not write queued players into the database " + t.getMessage());
+                }
+            }
+        }, DRAIN_INTERVAL_MILLIS, DRAIN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes whatever has changed for each player, journals it, and queues it to be written to Mongo.
+     *
+     * The changes are taken and queued while holding the queue's lock, so that two saves of the same player from different threads are always queued in the order they were taken.
+     * @param players The players to save.
+     * @return The players who had changes to save.
+     * @throws IOException If the changes could not be written to the journal. The changes are handed back to the players in this case, and nothing has been queued.
+     */
+    List<COfflineMongoPlayer> enqueueFrom(Collection<? extends COfflineMongoPlayer> players) throws IOException {
+        List<COfflineMongoPlayer> changedPlayers = new ArrayList<>();
+        List<PlayerUpdate> updates = new ArrayList<>();
+        synchronized (lock) {
+            for (COfflineMongoPlayer player : players) {
+                PlayerUpdate update = player.takePendingUpdate();
+                if (update.isEmpty()) continue;
+                changedPlayers.add(player);
+                updates.add(update);
+            }
+            if (updates.isEmpty()) return changedPlayers;
+            ByteArrayOutputStream entries = new ByteArrayOutputStream();
+            BasicBSONEncoder encoder = new BasicBSONEncoder();
+            for (PlayerUpdate update : updates) entries.write(encoder.encode(update.toJournalEntry()));
+            try {
+                journal.write(entries.toByteArray());
+                journal.getFD().sync();
+            } catch (IOException e) {
+                for (int i = 0; i < changedPlayers.size(); i++) changedPlayers.get(i).restorePendingUpdate(updates.get(i));
+                throw e;
+            }
+            for (PlayerUpdate update : updates) queue(update);
+        }
+        return changedPlayers;
+    }
+
+    /**
+     * Applies anything we have not written yet for this player on top of a document read from Mongo, so that reads see our own writes.
+     * @param uuid The player's {@link java.util.UUID}.
+     * @param document The document from Mongo, or {@code null} if there was none.
+     * @return The document with pending updates applied, which may be {@code null} if the player has never been written.
+     */
+    DBObject overlay(UUID uuid, DBObject document) {
+        synchronized (lock) {
+            document = overlay(inFlightUpdates.get(uuid), document);
+            return overlay(pendingUpdates.get(uuid), document);
+        }
+    }
+
+    private static DBObject overlay(PlayerUpdate update, DBObject document) {
+        if (update == null) return document;
+        if (document == null) {
+            //We can only make up a document from nothing if we have the whole thing.
+            if (!update.isReplacement()) return null;
+            document = new BasicDBObject();
+        }
+        update.applyTo(document);
+        return document;
+    }
+
+    /**
+     * Drops anything queued for this player, such as when their records are deleted.
+     * If the drainer is writing this player right now, this waits for that write to finish, so that nothing we've queued can reach Mongo after this returns.
+     * @param uuid The player's {@link java.util.UUID}.
+     */
+    void discard(UUID uuid) {
+        synchronized (lock) {
+            awaitInFlight(uuid);
+            if (pendingUpdates.remove(uuid) == null) return;
+            try {
+                compactJournal();
+            } catch (IOException e) {
+                log.severe("Could not compact the player journal " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes whatever is queued for this player to Mongo now, instead of waiting for the drainer, such as when another server is about to read them.
+     * @param uuid The player's {@link java.util.UUID}.
+     * @return {@code true} if everything queued for the player is in Mongo, {@code false} if it couldn't be written (in which case it stays queued).
+     */
+    boolean flush(UUID uuid) {
+        PlayerUpdate update;
+        synchronized (lock) {
+            if (!awaitInFlight(uuid)) return false;
+            update = pendingUpdates.remove(uuid);
+            if (update == null) return true;
+            inFlightUpdates.put(uuid, update);
+        }
+        boolean written = repository.writePlayerUpdates(Collections.singletonList(update)).isEmpty();
+        synchronized (lock) {
+            inFlightUpdates.remove(uuid);
+            if (!written) requeue(update);
+            lock.notifyAll();
+            try {
+                compactJournal();
+            } catch (IOException e) {
+                //The update is in Mongo either way, it's only replayed again if we crash before the journal is next compacted.
+                log.severe("Could not compact the player journal " + e.getMessage());
+            }
+        }
+        return written;
+    }
+
+    //Waits for the drainer to finish writing this player, if it's writing them right now. Must be called holding the lock.
+    private boolean awaitInFlight(UUID uuid) {
+        while (inFlightUpdates.containsKey(uuid)) {
+            try {
+                lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean hasPendingUpdates() {
+        synchronized (lock) {
+            return !pendingUpdates.isEmpty();
+        }
+    }
+
+    /**
+     * Writes a single batch of pending updates to Mongo.
+     * @return {@code true} if every update in the batch was written.
+     */
+    private boolean drain() throws IOException {
+        List<PlayerUpdate> batch = new ArrayList<>();
+        synchronized (lock) {
+            Iterator<PlayerUpdate> iterator = pendingUpdates.values().iterator();
+            while (iterator.hasNext() && batch.size() < CMongoPlayerRepository.BULK_BATCH_SIZE) {
+                PlayerUpdate update = iterator.next();
+                iterator.remove();
+                inFlightUpdates.put(update.getUuid(), update);
+                batch.add(update);
+            }
+        }
+        if (batch.isEmpty()) return true;
+        Map<Integer, String> failures = repository.writePlayerUpdates(batch);
+        synchronized (lock) {
+            for (int i = 0; i < batch.size(); i++) {
+                PlayerUpdate update = batch.get(i);
+                inFlightUpdates.remove(update.getUuid());
+                //Anything that failed goes back in front of whatever was queued while we were writing it.
+                if (failures.containsKey(i)) requeue(update);
+            }
+            //Lets anyone discarding one of these players know it's no longer being written.
+            lock.notifyAll();
+            compactJournal();
+        }
+        if (!failures.isEmpty() && !failing) log.severe("Could not write " + failures.size() + " queued players into the database, will retry. " + failures.values().iterator().next());
+        if (failures.isEmpty() && failing) log.info("Writing queued players into the database again.");
+        failing = !failures.isEmpty();
+        return failures.isEmpty();
+    }
+
+    /**
+     * Stops the background writer, and tries to write everything that is still queued. Anything we can't write in time stays in the journal for next time.
+     * @param timeoutMillis How long we have to write what is left.
+     */
+    void shutdown(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        drainer.shutdown();
+        try {
+            drainer.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+            while (hasPendingUpdates() && System.currentTimeMillis() < deadline) {
+                if (!drain()) break;
+            }
+        } catch (InterruptedException | IOException e) {
+            log.severe("Could not finish writing queued players " + e.getMessage());
+        }
+        synchronized (lock) {
+            if (!pendingUpdates.isEmpty()) log.severe("Leaving " + pendingUpdates.size() + " unsaved players in " + journalFile.getName() + " for the next startup.");
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.severe("Could not close the player journal " + e.getMessage());
+            }
+        }
+    }
+
+    private void queue(PlayerUpdate update) {
+        PlayerUpdate existing = pendingUpdates.get(update.getUuid());
+        if (existing == null) pendingUpdates.put(update.getUuid(), update);
+        else existing.merge(update);
+    }
+
+    private void requeue(PlayerUpdate update) {
+        PlayerUpdate later = pendingUpdates.remove(update.getUuid());
+        if (later != null) update.merge(later);
+        pendingUpdates.put(update.getUuid(), update);
+    }
+
+    private void replayJournal() throws IOException {
+        if (!journalFile.exists()) return;
+        DefaultDBDecoder decoder = new DefaultDBDecoder();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            byte[] lengthBytes = new byte[4];
+            while (true) {
+                int read = in.read(lengthBytes);
+                if (read == -1) break;
+                byte[] entry;
+                try {
+                    if (read < 4) in.readFully(lengthBytes, read, 4 - read);
+                    //BSON lengths are little endian, and include the four bytes of the length itself.
+                    int length = (lengthBytes[0] & 0xFF) | (lengthBytes[1] & 0xFF) << 8 | (lengthBytes[2] & 0xFF) << 16 | (lengthBytes[3] & 0xFF) << 24;
+                    if (length < 5) throw new IOException("Bad entry length " + length);
+                    entry = new byte[length];
+                    System.arraycopy(lengthBytes, 0, entry, 0, 4);
+                    in.readFully(entry, 4, length - 4);
+                } catch (EOFException e) {
+                    //The last entry, cut off by a crash while it was being written.
+                    log.severe("Skipping the cut off last entry in the player journal");
+                    break;
+                } catch (IOException e) {
+                    //We can't find where the next entry starts once a length is wrong, so everything after this is lost.
+                    log.severe("Could not read the rest of the player journal " + e.getMessage());
+                    break;
+                }
+                try {
+                    queue(PlayerUpdate.fromJournalEntry(decoder.decode(entry, (DBCollection) null)));
+                } catch (RuntimeException e) {
+                    log.severe("Skipping unreadable entry in the player journal " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void replayLegacyJournal() throws IOException {
+        if (!legacyJournalFile.exists()) return;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(legacyJournalFile), LEGACY_JOURNAL_CHARSET))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                try {
+                    queue(PlayerUpdate.fromJournalEntry((DBObject) JSON.parse(line)));
+                } catch (RuntimeException e) {
+                    //Most likely the last line, cut off by a crash while it was being written.
+                    log.severe("Skipping unreadable entry in the player journal " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    //Rewrites the journal to hold exactly what hasn't been written to Mongo yet. Must be called holding the lock.
+    private void compactJournal() throws IOException {
+        File compacted = new File(journalFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(compacted)) {
+            ByteArrayOutputStream entries = new ByteArrayOutputStream();
+            BasicBSONEncoder encoder = new BasicBSONEncoder();
+            for (PlayerUpdate update : inFlightUpdates.values()) entries.write(encoder.encode(update.toJournalEntry()));
+            for (PlayerUpdate update : pendingUpdates.values()) entries.write(encoder.encode(update.toJournalEntry()));
+            out.write(entries.toByteArray());
+            out.getFD().sync();
+        }
+        if (journal != null) journal.close();
+        try {
+            Files.move(compacted.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            //Whether or not the move worked, we need somewhere to keep appending to.
+            journal = new FileOutputStream(journalFile, true);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package net.cogzmc.core.player.mongo;
+
+import lombok.Getter;
+import net.cogzmc.core.player.PermissionTrie;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The permissions given by a set of groups, resolved once and shared by every player who is in exactly those groups.
+ */
+final class ResolvedPermissions {
+    //Unmodifiable, since every player holding these sees the same map.
+    @Getter private final Map<String, Boolean> permissions;
+    @Getter private final PermissionTrie trie;
+
+    ResolvedPermissions(Map<String, Boolean> permissions) {
+        this.permissions = Collections.unmodifiableMap(permissions);
+        this.trie = PermissionTrie.compile(permissions);
+    }
+}
@@ -0,0 +1,100 @@
+package net.cogzmc.core.player.mongo;
+
+import lombok.EqualsAndHashCode;
+import net.cogzmc.core.player.CGroup;
+import org.bson.types.ObjectId;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hands out one {@link net.cogzmc.core.player.mongo.ResolvedPermissions} per set of groups, so players in the same groups share their resolved permissions
+ * instead of each holding their own copy.
+ *
+ * Entries are only weakly held, so a set is dropped as soon as the last player using it is gone. Whenever any group is resolved again, everything here is
+ * out of date, so {@link #invalidate()} starts a new generation and sets from older generations are never handed out again.
+ */
+final class ResolvedPermissionsCache {
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final ReferenceQueue<ResolvedPermissions> collected = new ReferenceQueue<>();
+    private volatile int generation;
+
+    /**
+     * Gets the permissions for a set of groups, resolving them if nobody in these groups has already.
+     * @param groups The groups, in any order.
+     * @param shareable {@code false} if the groups are not the current ones, in which case the permissions are resolved just for this caller.
+     * @return The {@link net.cogzmc.core.player.mongo.ResolvedPermissions}.
+     */
+    ResolvedPermissions get(Collection<CGroup> groups, boolean shareable) {
+        if (!shareable) return new ResolvedPermissions(resolve(groups));
+        removeCollected();
+        Key key = new Key(generation, groups);
+        Entry entry = entries.get(key);
+        ResolvedPermissions resolvedPermissions = entry == null ? null : entry.get();
+        if (resolvedPermissions != null) return resolvedPermissions;
+        resolvedPermissions = new ResolvedPermissions(resolve(groups));
+        entries.put(key, new Entry(key, resolvedPermissions, collected));
+        return resolvedPermissions;
+    }
+
+    /**
+     * Gets the current generation, which changes every time the sets are invalidated.
+     * @return The generation.
+     */
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Forgets every set, for when the groups they were resolved from have changed.
+     */
+    void invalidate() {
+        generation++;
+        entries.clear();
+    }
+
+    //Any group giving true wins over one giving false, so the order the groups are merged in doesn't matter.
+    private static Map<String, Boolean> resolve(Collection<CGroup> groups) {
+        Map<String, Boolean> permissions = new HashMap<>();
+        for (CGroup group : groups) {
+            group.ensureLoaded();
+            for (Map.Entry<String, Boolean> permission : group.getAllPermissions().entrySet()) {
+                Boolean current = permissions.get(permission.getKey());
+                if (current == null || !current) permissions.put(permission.getKey(), permission.getValue());
+            }
+        }
+        return permissions;
+    }
+
+    private void removeCollected() {
+        Reference<? extends ResolvedPermissions> reference;
+        while ((reference = collected.poll()) != null) {
+            Entry entry = (Entry) reference;
+            entries.remove(entry.key, entry);
+        }
+    }
+
+    @EqualsAndHashCode
+    private static final class Key {
+        private final int generation;
+        private final Set<ObjectId> groupIds = new HashSet<>();
+
+        private Key(int generation, Collection<CGroup> groups) {
+            this.generation = generation;
+            for (CGroup group : groups) groupIds.add(((CMongoGroup) group).getObjectId());
+        }
+    }
+
+    private static final class Entry extends WeakReference<ResolvedPermissions> {
+        private final Key key;
+
+        private Entry(Key key, ResolvedPermissions referent, ReferenceQueue<ResolvedPermissions> queue) {
+            super(referent, queue);
+            this.key = key;
+        }
+    }
+}
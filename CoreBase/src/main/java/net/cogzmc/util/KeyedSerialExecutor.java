@@ -0,0 +1,154 @@
+package net.cogzmc.util;
+
+import lombok.extern.java.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on a bounded pool of threads, where every task submitted for the same key runs in the order it was submitted and never at the same time as another task for that key.
+ *
+ * Tasks for different keys run in parallel. This lets us move work for a single player (such as saving them) off of the main thread without it being reordered.
+ * @param <K> The type of key that tasks are ordered by.
+ */
+@Log
+public final class KeyedSerialExecutor<K> {
+    private final ExecutorService executor;
+    private final Object lock = new Object();
+    //Only keys with work queued or running have a lane, so this does not grow with every key we have ever seen.
+    private final Map<K, Queue<FutureTask<?>>> lanes = new HashMap<>();
+
+    /**
+     * Creates a new executor.
+     * @param name The name given to each thread, followed by a number.
+     * @param threads The most tasks that will run at once.
+     */
+    public KeyedSerialExecutor(final String name, int threads) {
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + " #" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues a task to run after every task already submitted for this key.
+     * @param key The key to order this task by.
+     * @param task The task to run.
+     * @return A {@link java.util.concurrent.Future} that completes when the task has run.
+     * @throws java.util.concurrent.RejectedExecutionException If this executor has been shut down.
+     */
+    public Future<?> submit(final K key, final Runnable task) {
+        FutureTask<?> futureTask = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    //Nobody may ever look at the future, so we make sure this gets seen.
+                    log.severe("Task for " + key + " failed " + e.getMessage());
+                    throw e;
+                }
+            }
+        }, null);
+        synchronized (lock) {
+            if (executor.isShutdown()) throw new RejectedExecutionException("This executor has been shut down.");
+            Queue<FutureTask<?>> lane = lanes.get(key);
+            if (lane != null) {
+                //Something is already running for this key, and it will pick this up once it is done.
+                lane.add(futureTask);
+                return futureTask;
+            }
+            lane = new ArrayDeque<>();
+            lane.add(futureTask);
+            lanes.put(key, lane);
+            executor.execute(new LaneRunner(key, lane));
+        }
+        return futureTask;
+    }
+
+    /**
+     * Waits for every task that has been submitted for this key so far to finish.
+     * @param key The key to wait for.
+     * @param timeoutMillis The longest we will wait.
+     * @return {@code true} if everything finished, {@code false} if we ran out of time.
+     * @throws InterruptedException If we were interrupted while waiting.
+     */
+    public boolean awaitPending(K key, long timeoutMillis) throws InterruptedException {
+        Future<?> barrier;
+        synchronized (lock) {
+            if (!lanes.containsKey(key)) return true;
+            if (executor.isShutdown()) return false;
+            //Tasks for a key run in order, so once this has run, everything before it has too.
+            barrier = submit(key, new Runnable() {
+                @Override
+                public void run() {}
+            });
+        }
+        try {
+            barrier.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException e) {
+            //The barrier itself does nothing, so this can't happen.
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stops accepting new tasks and waits for everything already submitted to finish.
+     * @param timeoutMillis The longest we will wait.
+     * @return {@code true} if everything finished in time.
+     */
+    public boolean shutdown(long timeoutMillis) {
+        synchronized (lock) {
+            executor.shutdown();
+        }
+        try {
+            return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    //Runs everything in a lane, one after another, until it is empty.
+    private final class LaneRunner implements Runnable {
+        private final K key;
+        private final Queue<FutureTask<?>> lane;
+
+        private LaneRunner(K key, Queue<FutureTask<?>> lane) {
+            this.key = key;
+            this.lane = lane;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                FutureTask<?> task;
+                synchronized (lock) {
+                    task = lane.peek();
+                    if (task == null) {
+                        lanes.remove(key);
+                        return;
+                    }
+                }
+                //The task stays at the head of the lane while it runs, so the lane isn't removed out from under anyone waiting on it.
+                task.run();
+                synchronized (lock) {
+                    lane.poll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package net.cogzmc.core.player;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the compiled permission trie resolves wildcards, denials, and casing the way the permission map it was compiled from is meant to be read.
+ */
+public class PermissionTrieTest {
+    @Test
+    public void wildcardAllowsEverythingBelowIt() {
+        PermissionTrie trie = trie("core.*", true);
+        assertTrue(trie.has("core.chat"));
+        assertTrue(trie.has("core.chat.color"));
+        assertFalse(trie.has("core"));
+        assertFalse(trie.has("other.chat"));
+    }
+
+    @Test
+    public void moreSpecificDenialBeatsWildcard() {
+        PermissionTrie trie = trie("core.*", true, "core.chat.*", false, "core.fly", false);
+        assertFalse(trie.has("core.chat.color"));
+        assertFalse(trie.has("core.fly"));
+        assertTrue(trie.has("core.home"));
+        assertEquals(Boolean.FALSE, trie.getValue("core.chat.color"));
+    }
+
+    @Test
+    public void rootWildcardAllowsEverything() {
+        PermissionTrie trie = trie("*", true, "core.fly", false);
+        assertTrue(trie.has("core"));
+        assertTrue(trie.has("other.thing.here"));
+        assertFalse(trie.has("core.fly"));
+    }
+
+    @Test
+    public void checksAreCaseInsensitive() {
+        PermissionTrie trie = trie("Core.Chat", true, "core.FLY", false);
+        assertTrue(trie.has("core.chat"));
+        assertTrue(trie.has("CORE.CHAT"));
+        assertFalse(trie.has("Core.Fly"));
+        assertEquals(Boolean.FALSE, trie.getValue("core.fly"));
+    }
+
+    @Test
+    public void unsetPermissionHasNoValue() {
+        PermissionTrie trie = trie("core.chat", true);
+        assertNull(trie.getValue("core.home"));
+        assertNull(trie.getValue("core"));
+        assertNull(PermissionTrie.EMPTY.getValue("core.chat"));
+        assertFalse(trie.has("core.home"));
+        assertEquals(Boolean.TRUE, trie.getValue("core.chat"));
+    }
+
+    private static PermissionTrie trie(Object... permissionsAndValues) {
+        Map<String, Boolean> permissions = new HashMap<>();
+        for (int i = 0; i < permissionsAndValues.length; i += 2) {
+            permissions.put((String) permissionsAndValues[i], (Boolean) permissionsAndValues[i + 1]);
+        }
+        return PermissionTrie.compile(permissions);
+    }
+}
@@ -0,0 +1,173 @@
+package net.cogzmc.core.player.mongo;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObjectBuilder;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that copying a player's state (which is what happens when a player comes online) ends up the same as building their document and reading it back,
+ * which is what used to happen.
+ */
+public class COfflineMongoPlayerCopyTest {
+    private final ObjectId memberGroupId = new ObjectId(), staffGroupId = new ObjectId(), defaultGroupId = new ObjectId();
+    private CMongoPlayerRepository playerRepository;
+    private CMongoGroupRepository groupRepository;
+
+    @Before
+    public void setUp() {
+        playerRepository = new CMongoPlayerRepository(null);
+        groupRepository = new CMongoGroupRepository(null, playerRepository) {
+            @Override
+            public void reloadGroups() {
+                //There is no database, the groups are loaded below.
+            }
+        };
+        groupRepository.loadGroups(Arrays.asList(
+                group(defaultGroupId, "Default", 0, Collections.<ObjectId>emptyList(), "core.chat", true),
+                group(memberGroupId, "Member", 1, Collections.singletonList(defaultGroupId), "core.home", false),
+                group(staffGroupId, "Staff", 5, Collections.singletonList(memberGroupId), "core.*", false)));
+        playerRepository.setGroupRepository(groupRepository);
+    }
+
+    @Test
+    public void copyMatchesReadingBackTheDocument() {
+        COfflineMongoPlayer original = new COfflineMongoPlayer(UUID.randomUUID(), player(Arrays.asList(memberGroupId, staffGroupId), true), playerRepository);
+        assertSameState(reload(original), new COfflineMongoPlayer(original, playerRepository));
+    }
+
+    @Test
+    public void copyMatchesReadingBackTheDocumentWithoutGroups() {
+        COfflineMongoPlayer original = new COfflineMongoPlayer(UUID.randomUUID(), player(Collections.<ObjectId>emptyList(), false), playerRepository);
+        COfflineMongoPlayer copy = new COfflineMongoPlayer(original, playerRepository);
+        assertSameState(reload(original), copy);
+        assertEquals(defaultGroupId, ((CMongoGroup) copy.getPrimaryGroup()).getObjectId());
+    }
+
+    @Test
+    public void copyMatchesReadingBackTheDocumentAfterChanges() {
+        COfflineMongoPlayer original = new COfflineMongoPlayer(UUID.randomUUID(), player(Collections.singletonList(memberGroupId), false), playerRepository);
+        original.setPermission("core.fly", true);
+        original.storeSettingValue("nick", "Steve");
+        original.setChatPrefix("[VIP]");
+        assertSameState(reload(original), new COfflineMongoPlayer(original, playerRepository));
+    }
+
+    @Test
+    public void copyMatchesReadingBackTheDocumentAfterAGroupChanges() {
+        COfflineMongoPlayer original = new COfflineMongoPlayer(UUID.randomUUID(), player(Collections.singletonList(memberGroupId), false), playerRepository);
+        assertFalse(original.hasPermission("core.fly"));
+        //The group keeps its instance, only what it resolves to changes.
+        groupRepository.getGroupByObjectId(defaultGroupId).setPermission("core.fly", true);
+        COfflineMongoPlayer copy = new COfflineMongoPlayer(original, playerRepository);
+        assertSameState(reload(original), copy);
+        assertTrue(copy.hasPermission("core.fly"));
+    }
+
+    @Test
+    public void copiedSettingsDoNotShareMapsOrLists() {
+        COfflineMongoPlayer original = new COfflineMongoPlayer(UUID.randomUUID(), player(Collections.<ObjectId>emptyList(), false), playerRepository);
+        COfflineMongoPlayer copy = new COfflineMongoPlayer(original, playerRepository);
+        @SuppressWarnings("unchecked") Map<String, Object> copiedHomes = copy.getSettingValue("homes", Map.class);
+        @SuppressWarnings("unchecked") List<Object> copiedFriends = copy.getSettingValue("friends", List.class);
+        copiedHomes.put("spawn", "0,0,0");
+        ((Map<String, Object>) copiedHomes.get("base")).put("world", "nether");
+        copiedFriends.add("Alex");
+
+        Map<?, ?> originalHomes = original.getSettingValue("homes", Map.class);
+        assertFalse(originalHomes.containsKey("spawn"));
+        assertEquals("world", ((Map<?, ?>) originalHomes.get("base")).get("world"));
+        assertEquals(Collections.singletonList("Notch"), original.getSettingValue("friends", List.class));
+    }
+
+    private COfflineMongoPlayer reload(COfflineMongoPlayer player) {
+        return new COfflineMongoPlayer(player.getUniqueIdentifier(), player.getObjectForPlayer(), playerRepository);
+    }
+
+    private static void assertSameState(COfflineMongoPlayer expected, COfflineMongoPlayer actual) {
+        assertEquals(expected.getObjectId(), actual.getObjectId());
+        assertEquals(expected.getStateId(), actual.getStateId());
+        assertEquals(expected.getUniqueIdentifier(), actual.getUniqueIdentifier());
+        assertEquals(expected.getLastKnownUsername(), actual.getLastKnownUsername());
+        assertEquals(expected.getDisplayName(), actual.getDisplayName());
+        assertEquals(expected.getFirstTimeOnline(), actual.getFirstTimeOnline());
+        assertEquals(expected.getLastTimeOnline(), actual.getLastTimeOnline());
+        assertEquals(expected.getMillisecondsOnline(), actual.getMillisecondsOnline());
+        assertEquals(expected.getKnownUsernames(), actual.getKnownUsernames());
+        assertEquals(expected.getKnownIPAddresses(), actual.getKnownIPAddresses());
+        assertEquals(expected.getSettingKeys(), actual.getSettingKeys());
+        for (String key : expected.getSettingKeys()) {
+            assertEquals(key, expected.getSettingValue(key, Object.class), actual.getSettingValue(key, Object.class));
+        }
+        assertEquals(expected.getChatColor(), actual.getChatColor());
+        assertEquals(expected.getChatPrefix(), actual.getChatPrefix());
+        assertEquals(expected.getChatSuffix(), actual.getChatSuffix());
+        assertEquals(expected.getTablistColor(), actual.getTablistColor());
+        assertEquals(expected.getDeclaredPermissions(), actual.getDeclaredPermissions());
+        assertEquals(expected.getGroups(), actual.getGroups());
+        assertSame(expected.getPrimaryGroup(), actual.getPrimaryGroup());
+        assertEquals(new HashMap<>(expected.getAllPermissions()), new HashMap<>(actual.getAllPermissions()));
+        for (String permission : Arrays.asList("core.chat", "core.home", "core.fly", "core.anything", "other.thing")) {
+            assertEquals(permission, expected.hasPermission(permission), actual.hasPermission(permission));
+        }
+        assertEquals(expected.getObjectForPlayer().get(MongoKey.ASSETS_KEY.toString()), actual.getObjectForPlayer().get(MongoKey.ASSETS_KEY.toString()));
+    }
+
+    private static DBObject group(ObjectId id, String name, int priority, List<ObjectId> parents, String permission, boolean isDefault) {
+        BasicDBList permissions = new BasicDBList();
+        permissions.add(BasicDBObjectBuilder.start(MongoKey.PERMISSION_PERM.toString(), permission).add(MongoKey.PERMISSION_VALUE.toString(), true).get());
+        BasicDBObjectBuilder group = BasicDBObjectBuilder.start(MongoKey.ID_KEY.toString(), id)
+                .add(MongoKey.GROUPS_NAME_KEY.toString(), name)
+                .add(MongoKey.GROUPS_PRIORITY_KEY.toString(), priority)
+                .add(MongoKey.GROUPS_PARENTS_KEY.toString(), MongoUtils.getDBListFor(parents))
+                .add(MongoKey.GROUPS_PERMISSIONS_KEY.toString(), permissions)
+                .add(MongoKey.GROUPS_TABLIST_COLOR_KEY.toString(), "&f")
+                .add(MongoKey.GROUPS_CHAT_COLOR_KEY.toString(), "&7")
+                .add(MongoKey.GROUPS_CHAT_PREFIX_KEY.toString(), name)
+                .add(MongoKey.GROUPS_CHAT_SUFFIX_KEY.toString(), "");
+        if (isDefault) group.add(MongoKey.GROUPS_DEFAULT_MARKER.toString(), true);
+        return group.get();
+    }
+
+    private static DBObject player(List<ObjectId> groupIds, boolean withDeclaredPermission) {
+        BasicDBList permissions = new BasicDBList();
+        if (withDeclaredPermission) {
+            permissions.add(BasicDBObjectBuilder.start(MongoKey.PERMISSION_PERM.toString(), "core.home").add(MongoKey.PERMISSION_VALUE.toString(), false).get());
+        }
+        BasicDBList assets = new BasicDBList();
+        assets.add(BasicDBObjectBuilder.start(MongoKey.FULLY_QUALIFIED_CLASS_NAME_KEY.toString(), "com.example.MissingAsset")
+                .add(MongoKey.META_KEY.toString(), BasicDBObjectBuilder.start("level", 3).get()).get());
+        Map<String, Object> base = new HashMap<>();
+        base.put("world", "world");
+        base.put("coordinates", Arrays.asList(1, 64, 2));
+        Map<String, Object> homes = new HashMap<>();
+        homes.put("base", base);
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("homes", homes);
+        settings.put("friends", Collections.singletonList("Notch"));
+        settings.put("coins", 250);
+        return BasicDBObjectBuilder.start(MongoKey.ID_KEY.toString(), new ObjectId())
+                .add(MongoKey.UUID_KEY.toString(), UUID.randomUUID().toString())
+                .add(MongoKey.SCHEMA_VERSION_KEY.toString(), MongoSchemaMigrator.SCHEMA_VERSION)
+                .add(MongoKey.STATE_ID_KEY.toString(), new ObjectId())
+                .add(MongoKey.LAST_USERNAME_KEY.toString(), "Steve")
+                .add(MongoKey.USERNAMES_KEY.toString(), MongoUtils.getDBListFor(Arrays.asList("Steve", "Steve2")))
+                .add(MongoKey.IPS_KEY.toString(), MongoUtils.getDBListFor(Collections.singletonList("127.0.0.1")))
+                .add(MongoKey.FIRST_JOIN_KEY.toString(), new Date(1000))
+                .add(MongoKey.LAST_SEEN_KEY.toString(), new Date(2000))
+                .add(MongoKey.TIME_ONLINE_KEY.toString(), 123456789012L)
+                .add(MongoKey.DISPLAY_NAME.toString(), "&aSteve")
+                .add(MongoKey.SETTINGS_KEY.toString(), MongoUtils.getDBObjectFor(settings))
+                .add(MongoKey.ASSETS_KEY.toString(), assets)
+                .add(MongoKey.USER_GROUPS_KEY.toString(), MongoUtils.getDBListFor(groupIds))
+                .add(MongoKey.GROUPS_CHAT_COLOR_KEY.toString(), "&f")
+                .add(MongoKey.GROUPS_PERMISSIONS_KEY.toString(), permissions)
+                .get();
+    }
+}
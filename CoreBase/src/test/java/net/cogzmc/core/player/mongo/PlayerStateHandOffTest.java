@@ -0,0 +1,160 @@
+package net.cogzmc.core.player.mongo;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BasicDBObjectBuilder;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a player saved through the write-behind queue and handed off is used by the server they arrive on, and that they're loaded from the
+ * database instead once anything has been written to them since.
+ */
+public class PlayerStateHandOffTest {
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final ObjectId defaultGroupId = new ObjectId();
+    private InMemoryPlayerRepository playerRepository;
+    private PlayerWriteBehindQueue writeBehindQueue;
+
+    @Before
+    public void setUp() throws Exception {
+        playerRepository = new InMemoryPlayerRepository();
+        CMongoGroupRepository groupRepository = new CMongoGroupRepository(null, playerRepository) {
+            @Override
+            public void reloadGroups() {
+                //There is no database, the groups are loaded below.
+            }
+        };
+        BasicDBList permissions = new BasicDBList();
+        permissions.add(BasicDBObjectBuilder.start(MongoKey.PERMISSION_PERM.toString(), "core.chat").add(MongoKey.PERMISSION_VALUE.toString(), true).get());
+        groupRepository.loadGroups(Collections.singletonList(BasicDBObjectBuilder.start(MongoKey.ID_KEY.toString(), defaultGroupId)
+                .add(MongoKey.GROUPS_NAME_KEY.toString(), "Default")
+                .add(MongoKey.GROUPS_PRIORITY_KEY.toString(), 0)
+                .add(MongoKey.GROUPS_PARENTS_KEY.toString(), new BasicDBList())
+                .add(MongoKey.GROUPS_PERMISSIONS_KEY.toString(), permissions)
+                .add(MongoKey.GROUPS_TABLIST_COLOR_KEY.toString(), "&f")
+                .add(MongoKey.GROUPS_CHAT_COLOR_KEY.toString(), "&7")
+                .add(MongoKey.GROUPS_CHAT_PREFIX_KEY.toString(), "")
+                .add(MongoKey.GROUPS_CHAT_SUFFIX_KEY.toString(), "")
+                .add(MongoKey.GROUPS_DEFAULT_MARKER.toString(), true).get()));
+        playerRepository.setGroupRepository(groupRepository);
+        writeBehindQueue = new PlayerWriteBehindQueue(playerRepository, new File(folder.getRoot(), "player-journal.bson"), new File(folder.getRoot(), "player-journal.log"));
+        playerRepository.setWriteBehindQueue(writeBehindQueue);
+    }
+
+    @After
+    public void tearDown() {
+        writeBehindQueue.shutdown(1000);
+    }
+
+    @Test
+    public void handedOffStateIsUsedWhenItWasWrittenFirst() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        COfflineMongoPlayer player = playerRepository.loadStoredPlayer(uuid, player(uuid));
+        player.setChatPrefix("[VIP]");
+        player.saveIntoDatabase();
+        playerRepository.writeQueuedPlayer(uuid);
+
+        byte[] state = CMongoPlayerRepository.encodeHandedOffState(player);
+        COfflineMongoPlayer handedOff = playerRepository.getPlayerFromHandedOffState(uuid, CMongoPlayerRepository.decodeHandedOffState(state));
+        assertNotNull(handedOff);
+        assertEquals(player.getStateId(), handedOff.getStateId());
+        assertEquals("[VIP]", handedOff.getChatPrefix());
+        assertEquals(player.getMillisecondsOnline(), handedOff.getMillisecondsOnline());
+    }
+
+    @Test
+    public void handedOffStateIsNotUsedWhenThePlayerWasWrittenSince() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        COfflineMongoPlayer player = playerRepository.loadStoredPlayer(uuid, player(uuid));
+        player.setChatPrefix("[VIP]");
+        player.saveIntoDatabase();
+        playerRepository.writeQueuedPlayer(uuid);
+        byte[] state = CMongoPlayerRepository.encodeHandedOffState(player);
+
+        //Another server changes the player after the state was handed off.
+        COfflineMongoPlayer elsewhere = new COfflineMongoPlayer(uuid, playerRepository.getStoredDocument(uuid), playerRepository);
+        elsewhere.setChatSuffix("!");
+        playerRepository.writePlayerUpdates(Collections.singletonList(elsewhere.takePendingUpdate()));
+
+        assertNull(playerRepository.getPlayerFromHandedOffState(uuid, CMongoPlayerRepository.decodeHandedOffState(state)));
+    }
+
+    @Test
+    public void handedOffStateIsNotUsedWithoutAStateId() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        DBObject document = player(uuid);
+        document.removeField(MongoKey.STATE_ID_KEY.toString());
+        COfflineMongoPlayer player = playerRepository.loadStoredPlayer(uuid, document);
+
+        byte[] state = CMongoPlayerRepository.encodeHandedOffState(player);
+        assertNull(playerRepository.getPlayerFromHandedOffState(uuid, CMongoPlayerRepository.decodeHandedOffState(state)));
+    }
+
+    private static DBObject player(UUID uuid) {
+        return BasicDBObjectBuilder.start(MongoKey.ID_KEY.toString(), new ObjectId())
+                .add(MongoKey.UUID_KEY.toString(), uuid)
+                .add(MongoKey.SCHEMA_VERSION_KEY.toString(), MongoSchemaMigrator.SCHEMA_VERSION)
+                .add(MongoKey.STATE_ID_KEY.toString(), new ObjectId())
+                .add(MongoKey.LAST_USERNAME_KEY.toString(), "Steve")
+                .add(MongoKey.USERNAMES_KEY.toString(), MongoUtils.getDBListFor(Collections.singletonList("Steve")))
+                .add(MongoKey.FIRST_JOIN_KEY.toString(), new Date(1000))
+                .add(MongoKey.LAST_SEEN_KEY.toString(), new Date(2000))
+                .add(MongoKey.TIME_ONLINE_KEY.toString(), 123456789012L)
+                .add(MongoKey.USER_GROUPS_KEY.toString(), new BasicDBList())
+                .add(MongoKey.GROUPS_PERMISSIONS_KEY.toString(), new BasicDBList())
+                .get();
+    }
+
+    //Keeps the users collection in memory. Reading the stored state id only looks at what has been written, which is all the server a player arrives on can see.
+    private static final class InMemoryPlayerRepository extends CMongoPlayerRepository {
+        private final Map<UUID, DBObject> documents = new HashMap<>();
+
+        private InMemoryPlayerRepository() {
+            super(null);
+        }
+
+        private COfflineMongoPlayer loadStoredPlayer(UUID uuid, DBObject document) {
+            synchronized (documents) {
+                documents.put(uuid, document);
+            }
+            return new COfflineMongoPlayer(uuid, getStoredDocument(uuid), this);
+        }
+
+        private DBObject getStoredDocument(UUID uuid) {
+            synchronized (documents) {
+                DBObject document = documents.get(uuid);
+                return document == null ? null : (DBObject) ((BasicDBObject) document).copy();
+            }
+        }
+
+        @Override
+        Map<Integer, String> writePlayerUpdates(List<PlayerUpdate> updates) {
+            synchronized (documents) {
+                for (PlayerUpdate update : updates) {
+                    DBObject document = documents.get(update.getUuid());
+                    if (document == null) documents.put(update.getUuid(), document = new BasicDBObject());
+                    update.applyTo(document);
+                }
+            }
+            return new HashMap<>();
+        }
+
+        @Override
+        ObjectId getStoredStateId(UUID uuid) {
+            DBObject document = getStoredDocument(uuid);
+            return document == null ? null : COfflineMongoPlayer.getStateIdFrom(document);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import net.cogzmc.core.modular.command.CommandException;
 import net.cogzmc.core.modular.command.CommandMeta;
 import net.cogzmc.core.modular.command.CommandPermission;
 import net.cogzmc.core.modular.command.ModuleCommand;
+import net.cogzmc.core.player.LoginAdmissionController;
 import net.cogzmc.coreessentials.CoreEssentials;
 import org.bukkit.command.CommandSender;
 
@@ -24,6 +25,11 @@ public final class LagInfoCommand extends ModuleCommand {
         sender.sendMessage(formatStat("Memory Used", ByteLevels.formatBytes(usedMemory)));
         sender.sendMessage(formatStat("Memory Free", ByteLevels.formatBytes(freeMemory)));
         sender.sendMessage(formatStat("Players Online", String.valueOf(Core.getPlayerManager().getOnlinePlayers().size())));
+        LoginAdmissionController admissionController = Core.getPlayerManager().getLoginAdmissionController();
+        sender.sendMessage(formatStat("Players Loading", admissionController.getActiveLoads() + "/" + admissionController.getMaximumConcurrentLoads()));
+        sender.sendMessage(formatStat("Login Queue", String.valueOf(admissionController.getQueueDepth())));
+        sender.sendMessage(formatStat("Login Wait", "avg " + admissionController.getAverageWaitMillis() + "ms, max " + admissionController.getLongestWaitMillis() + "ms"));
+        sender.sendMessage(formatStat("Logins Refused", String.valueOf(admissionController.getRefusedCount())));
     }
 
     private String formatStat(String stat, String value) {
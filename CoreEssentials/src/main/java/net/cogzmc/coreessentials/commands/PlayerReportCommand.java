@@ -14,6 +14,8 @@ import org.ocpsoft.prettytime.PrettyTime;
 
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 @CommandMeta(description = "Lets you generate a report on a player.", usage = "/playerreport [name]", aliases = {"whois", "playerinfo", "who"})
 @CommandPermission("core.essentials.lookup")
@@ -23,40 +25,55 @@ public final class PlayerReportCommand extends ModuleCommand {
     }
 
     @Override
-    protected void handleCommandUnspecific(CommandSender sender, String[] args) throws CommandException {
+    protected void handleCommandUnspecific(final CommandSender sender, String[] args) throws CommandException {
         if (args.length < 1) throw new ArgumentRequirementException("You must specify a player!");
-        COfflinePlayer targetedPlayer = getTargetedPlayer(args[0]);
-        if (targetedPlayer == null) throw new ArgumentRequirementException("The player you specified does not exist or is not specific enough!");
-        sender.sendMessage(CoreEssentials.getInstance().getFormat("lookup-header", false, new String[]{"<name>", targetedPlayer.getDisplayName()}));
-        PrettyTime prettyTime = new PrettyTime();
-        sender.sendMessage(getFormattedStat("UUID", targetedPlayer.getUniqueIdentifier().toString()));
-        sender.sendMessage(getFormattedStat("IPs", Joiner.on(", ").join(targetedPlayer.getKnownIPAddresses())));
-        if (Core.getPlayerManager().getGeoIPManager() != null && targetedPlayer instanceof CPlayer) {
-            try {
-                CityResponse geoIPInfo = ((CPlayer) targetedPlayer).getGeoIPInfo().getResponse();
-                sender.sendMessage(getFormattedStat("Location", geoIPInfo.getCity().getName() + ", " + geoIPInfo.getMostSpecificSubdivision().getName() + ", " + geoIPInfo.getCountry().getName()));
-            } catch (Exception e) {
-                sender.sendMessage(getFormattedStat("Location", "ERROR"));
-                e.printStackTrace();
+        completeAsync(sender, args, getTargetedPlayer(args[0]), new AsyncCommandCallback<COfflinePlayer>() {
+            @Override
+            public void call(COfflinePlayer targetedPlayer) throws CommandException {
+                if (targetedPlayer == null) throw new ArgumentRequirementException("The player you specified does not exist or is not specific enough!");
+                sender.sendMessage(CoreEssentials.getInstance().getFormat("lookup-header", false, new String[]{"<name>", targetedPlayer.getDisplayName()}));
+                PrettyTime prettyTime = new PrettyTime();
+                sender.sendMessage(getFormattedStat("UUID", targetedPlayer.getUniqueIdentifier().toString()));
+                sender.sendMessage(getFormattedStat("IPs", Joiner.on(", ").join(targetedPlayer.getKnownIPAddresses())));
+                if (Core.getPlayerManager().getGeoIPManager() != null && targetedPlayer instanceof CPlayer) {
+                    try {
+                        CityResponse geoIPInfo = ((CPlayer) targetedPlayer).getGeoIPInfo().getResponse();
+                        sender.sendMessage(getFormattedStat("Location", geoIPInfo.getCity().getName() + ", " + geoIPInfo.getMostSpecificSubdivision().getName() + ", " + geoIPInfo.getCountry().getName()));
+                    } catch (Exception e) {
+                        sender.sendMessage(getFormattedStat("Location", "ERROR"));
+                        e.printStackTrace();
+                    }
+                }
+                sender.sendMessage(getFormattedStat("Usernames", Joiner.on(", ").join(targetedPlayer.getKnownUsernames())));
+                sender.sendMessage(getFormattedStat("Last Time Seen", prettyTime.format(targetedPlayer.getLastTimeOnline())));
+                sender.sendMessage(getFormattedStat("First Time Joined", prettyTime.format(targetedPlayer.getFirstTimeOnline())));
+                String timeOnlineFormat = new PrettyTime(new Date(0)).format(new Date(targetedPlayer.getMillisecondsOnline()));
+                sender.sendMessage(getFormattedStat("Time Spent Online", timeOnlineFormat));
+                sender.sendMessage(getFormattedStat("Display Name", ChatColor.translateAlternateColorCodes('&', targetedPlayer.getDisplayName())));
             }
-        }
-        sender.sendMessage(getFormattedStat("Usernames", Joiner.on(", ").join(targetedPlayer.getKnownUsernames())));
-        sender.sendMessage(getFormattedStat("Last Time Seen", prettyTime.format(targetedPlayer.getLastTimeOnline())));
-        sender.sendMessage(getFormattedStat("First Time Joined", prettyTime.format(targetedPlayer.getFirstTimeOnline())));
-        String timeOnlineFormat = new PrettyTime(new Date(0)).format(new Date(targetedPlayer.getMillisecondsOnline()));
-        sender.sendMessage(getFormattedStat("Time Spent Online", timeOnlineFormat));
-        sender.sendMessage(getFormattedStat("Display Name", ChatColor.translateAlternateColorCodes('&', targetedPlayer.getDisplayName())));
+        });
     }
 
     private String getFormattedStat(String name, String value) {
         return " " + CoreEssentials.getInstance().getFormat("lookup-line", false, new String[]{"<name>", name}, new String[]{"<value>", value});
     }
 
-    private COfflinePlayer getTargetedPlayer(String arg) {
+    //Completes with null when nobody, or more than one player, matches.
+    private CompletableFuture<COfflinePlayer> getTargetedPlayer(final String arg) {
         List<CPlayer> cPlayerByStartOfName = Core.getPlayerManager().getCPlayerByStartOfName(arg);
-        if (cPlayerByStartOfName.size() == 1) return cPlayerByStartOfName.get(0);
-        List<COfflinePlayer> offlinePlayerByName = Core.getPlayerManager().getOfflinePlayerByName(arg);
-        if (offlinePlayerByName.size() == 1) return offlinePlayerByName.get(0);
-        return null;
+        if (cPlayerByStartOfName.size() == 1) return CompletableFuture.<COfflinePlayer>completedFuture(cPlayerByStartOfName.get(0));
+        return Core.getPlayerManager().getOfflinePlayerByNameAsync(arg).thenCompose(new Function<List<COfflinePlayer>, CompletableFuture<List<COfflinePlayer>>>() {
+            @Override
+            public CompletableFuture<List<COfflinePlayer>> apply(List<COfflinePlayer> offlinePlayerByName) {
+                //Nobody by that exact name, so we take the start of a name as long as only one player matches.
+                if (offlinePlayerByName.size() == 0) return Core.getPlayerManager().getOfflinePlayersByStartOfNameAsync(arg, 2);
+                return CompletableFuture.completedFuture(offlinePlayerByName);
+            }
+        }).thenApply(new Function<List<COfflinePlayer>, COfflinePlayer>() {
+            @Override
+            public COfflinePlayer apply(List<COfflinePlayer> offlinePlayers) {
+                return offlinePlayers.size() == 1 ? offlinePlayers.get(0) : null;
+            }
+        });
     }
 }
@@ -6,13 +6,12 @@ import net.cogzmc.core.Core;
 import net.cogzmc.core.modular.command.CommandException;
 import net.cogzmc.core.modular.command.ModuleCommand;
 import net.cogzmc.core.network.NetworkServer;
-import net.cogzmc.core.player.COfflinePlayer;
+import net.cogzmc.core.player.PlayerSummary;
 import net.cogzmc.coreessentials.CoreEssentials;
 import org.bukkit.command.CommandSender;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 
 @EqualsAndHashCode(callSuper = true)
 final class ListCommand extends ModuleCommand {
@@ -25,8 +24,9 @@ final class ListCommand extends ModuleCommand {
     @Override
     protected void handleCommandUnspecific(CommandSender sender, String[] args) throws CommandException {
         List<String> playerNames = new ArrayList<>();
-        for (UUID offlinePlayer : server.getPlayers()) {
-            playerNames.add(Core.getOfflinePlayerByUUID(offlinePlayer).getDisplayName());
+        //We only need their names, so there's no need to load the whole player.
+        for (PlayerSummary playerSummary : Core.getPlayerManager().getPlayerSummaries(server.getPlayers())) {
+            playerNames.add(playerSummary.getDisplayName());
         }
         String playerList = Joiner.on(" ").skipNulls().join(playerNames);
         CoreEssentials coreEssentials = Core.getInstance().getModuleProvider(CoreEssentials.class);
@@ -2,8 +2,10 @@ package net.cogzmc.permissions.command;
 
 import net.cogzmc.core.Core;
 import net.cogzmc.core.modular.command.*;
+import net.cogzmc.core.player.CGroup;
+import net.cogzmc.core.player.COfflinePlayer;
 import net.cogzmc.core.player.CPermissible;
-import net.cogzmc.permissions.PermissionsReloadNetCommand;
+import net.cogzmc.core.player.CPermissionsManager;
 import net.cogzmc.permissions.command.impl.PermissionName;
 import net.cogzmc.permissions.command.impl.nouns.*;
 import net.cogzmc.permissions.command.impl.nouns.PlayerNoun;
@@ -53,9 +55,23 @@ public final class  PermissionsCommand extends ModuleCommand {
         if (target == null && !verb.canAcceptNullTarget()) throw new ArgumentRequirementException("The target you specified is invalid!");
         else if (target == null) strings = new String[]{args[1]};
         verb.perform(sender, target, strings);
-        Core.getPermissionsManager().save();
-        Core.getPermissionsManager().reloadPermissions();
-        if (Core.getNetworkManager() != null) Core.getNetworkManager().sendMassNetCommand(new PermissionsReloadNetCommand());
+        //Only what was changed is written, and the other servers are told about it once it has been.
+        if (target instanceof COfflinePlayer) {
+            //Permission and group changes for a player shouldn't wait for the next periodic save.
+            Core.getPlayerManager().requestSave((COfflinePlayer) target);
+            return;
+        }
+        CPermissionsManager permissionsManager = Core.getPermissionsManager();
+        if (target instanceof CGroup) {
+            //A purged group is already gone, saving it would bring it back.
+            if (!permissionsManager.getGroups().contains(target)) return;
+            permissionsManager.saveGroup((CGroup) target);
+            //Only the group, what inherits from it, and the players using them are resolved again.
+            ((CGroup) target).reloadPermissions();
+            return;
+        }
+        permissionsManager.save();
+        permissionsManager.reloadPermissions();
     }
 
     @Override
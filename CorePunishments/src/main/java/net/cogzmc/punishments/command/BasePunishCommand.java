@@ -2,6 +2,8 @@ package net.cogzmc.punishments.command;
 
 import net.cogzmc.core.Core;
 import net.cogzmc.core.modular.command.CommandException;
+import net.cogzmc.core.modular.command.FriendlyException;
+import net.cogzmc.core.modular.command.ModuleCommand;
 import net.cogzmc.core.modular.command.PermissionException;
 import net.cogzmc.core.player.CPlayer;
 import net.cogzmc.punishments.PunishmentManager;
@@ -25,4 +27,19 @@ abstract class BasePunishCommand<T extends Punishment, M extends PunishmentManag
     protected void handleCommand(CPlayer sender, String[] args) throws CommandException {
         if (!sender.hasPermission("punish." + name)) throw new PermissionException("You do not have permission to " + name + " people!");
     }
+
+    //Thrown from the database thread when the punishment manager refuses, and shown using the punishment-error format.
+    static final class PunishmentFailedException extends CommandException implements FriendlyException {
+        private final String friendlyMessage;
+
+        PunishmentFailedException(String message) {
+            super(message);
+            this.friendlyMessage = Core.getModule(Punishments.class).getFormat("punishment-error", new String[]{"<error>", message});
+        }
+
+        @Override
+        public String getFriendlyMessage(ModuleCommand command) {
+            return friendlyMessage;
+        }
+    }
 }
@@ -3,6 +3,7 @@ package net.cogzmc.punishments.command;
 import com.google.common.base.Joiner;
 import net.cogzmc.core.Core;
 import net.cogzmc.core.modular.command.ArgumentRequirementException;
+import net.cogzmc.core.modular.command.AsyncCommandCallback;
 import net.cogzmc.core.modular.command.CommandException;
 import net.cogzmc.core.modular.command.CommandMeta;
 import net.cogzmc.core.player.COfflinePlayer;
@@ -13,6 +14,7 @@ import net.cogzmc.punishments.types.Punishment;
 import net.cogzmc.punishments.types.PunishmentException;
 
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 @CommandMeta(
         description = "Punish the target player",
@@ -24,21 +26,29 @@ public final class PermanentPunishCommand<T extends Punishment> extends BasePuni
     }
 
     @Override
-    protected void handleCommand(CPlayer sender, String[] args) throws CommandException {
-        Punishments module = Core.getModule(Punishments.class);
+    protected void handleCommand(final CPlayer sender, String[] args) throws CommandException {
+        final Punishments module = Core.getModule(Punishments.class);
         super.handleCommand(sender, args);
         if (args.length < 2)
             throw new ArgumentRequirementException("You need to specify both a target and a reason to " + name + " someone!");
         String target = args[0];
-        String reason = Joiner.on(" ").join(Arrays.copyOfRange(args, 1, args.length));
-        COfflinePlayer targetPlayer = getTargetByArg(target);
-        if (targetPlayer == null) throw new ArgumentRequirementException("The player you specified is not specific enough!");
-        try {
-            punishmentManager.punish(targetPlayer, reason, sender);
-        } catch (PunishmentException e) {
-            sender.sendMessage(module.getFormat("punishment-error", new String[]{"<error>", e.getMessage()}));
-            return;
-        }
-        sender.sendMessage(module.getFormat("punishment-success", new String[]{"<punishment>", name}, new String[]{"<target>", targetPlayer.getName()}, new String[]{"<reason>", reason}));
+        final String reason = Joiner.on(" ").join(Arrays.copyOfRange(args, 1, args.length));
+        CompletableFuture<String> punished = withTarget(getTargetByArg(target), "The player you specified is not specific enough!", new TargetWork<String>() {
+            @Override
+            public String apply(COfflinePlayer targetPlayer) throws CommandException {
+                try {
+                    punishmentManager.punish(targetPlayer, reason, sender);
+                } catch (PunishmentException e) {
+                    throw new PunishmentFailedException(e.getMessage());
+                }
+                return module.getFormat("punishment-success", new String[]{"<punishment>", name}, new String[]{"<target>", targetPlayer.getName()}, new String[]{"<reason>", reason});
+            }
+        });
+        completeAsync(sender.getBukkitPlayer(), args, punished, new AsyncCommandCallback<String>() {
+            @Override
+            public void call(String message) {
+                if (sender.isOnline()) sender.sendMessage(message);
+            }
+        });
     }
 }
@@ -1,32 +1,79 @@
 package net.cogzmc.punishments.command;
 
 import net.cogzmc.core.Core;
+import net.cogzmc.core.modular.command.ArgumentRequirementException;
+import net.cogzmc.core.modular.command.CommandException;
 import net.cogzmc.core.modular.command.ModuleCommand;
 import net.cogzmc.core.player.COfflinePlayer;
 import net.cogzmc.core.player.CPlayer;
+import net.cogzmc.core.player.mongo.CMongoDatabase;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 abstract class TargetedCommand extends ModuleCommand {
     protected TargetedCommand(String name) {
         super(name);
     }
 
-    protected COfflinePlayer getTargetByArg(String target) {
+    //Completes with null when the target is invalid or not specific enough.
+    protected CompletableFuture<COfflinePlayer> getTargetByArg(final String target) {
         if (target.length() > 16) {
-            if (!target.matches("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}")) return null;
-            return Core.getPlayerManager().getOfflinePlayerByUUID(UUID.fromString(target));
+            if (!target.matches("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}")) return CompletableFuture.completedFuture(null);
+            return Core.getPlayerManager().getOfflinePlayerByUUIDAsync(UUID.fromString(target));
         }
-        COfflinePlayer targetPlayer;
+        //Online players don't need the database.
         List<CPlayer> possibleOnlinePlayers = Core.getPlayerManager().getCPlayerByStartOfName(target);
-        if (possibleOnlinePlayers.size() != 1) {
-            List<COfflinePlayer> offlinePlayers = Core.getPlayerManager().getOfflinePlayerByName(target);
-            if (offlinePlayers.size() != 1) return null;
-            targetPlayer = offlinePlayers.get(0);
-        } else {
-            targetPlayer = possibleOnlinePlayers.get(0);
-        }
-        return targetPlayer;
+        if (possibleOnlinePlayers.size() == 1) return CompletableFuture.<COfflinePlayer>completedFuture(possibleOnlinePlayers.get(0));
+        return Core.getPlayerManager().getOfflinePlayerByNameAsync(target).thenCompose(new Function<List<COfflinePlayer>, CompletableFuture<List<COfflinePlayer>>>() {
+            @Override
+            public CompletableFuture<List<COfflinePlayer>> apply(List<COfflinePlayer> offlinePlayers) {
+                //Nobody by that exact name, so we take the start of a name as long as only one player matches.
+                if (offlinePlayers.size() == 0) return Core.getPlayerManager().getOfflinePlayersByStartOfNameAsync(target, 2);
+                return CompletableFuture.completedFuture(offlinePlayers);
+            }
+        }).thenApply(new Function<List<COfflinePlayer>, COfflinePlayer>() {
+            @Override
+            public COfflinePlayer apply(List<COfflinePlayer> offlinePlayers) {
+                return offlinePlayers.size() == 1 ? offlinePlayers.get(0) : null;
+            }
+        });
+    }
+
+    /**
+     * Does some work with the target on a database thread once they've been found, so that only the result has to be dealt with on the main thread.
+     * This is never the main thread, even when the target was online and found straight away.
+     * @param target The target, from {@link #getTargetByArg(String)}.
+     * @param notSpecificEnough The message to fail with if there is no target.
+     * @param work The work, which fails the future with any {@link net.cogzmc.core.modular.command.CommandException} it throws.
+     * @param <T> The type of the result.
+     * @return A future for the result of the work.
+     */
+    protected static <T> CompletableFuture<T> withTarget(CompletableFuture<COfflinePlayer> target, final String notSpecificEnough, final TargetWork<T> work) {
+        final CMongoDatabase database = (CMongoDatabase) Core.getInstance().getCDatabase();
+        return target.thenCompose(new Function<COfflinePlayer, CompletableFuture<T>>() {
+            @Override
+            public CompletableFuture<T> apply(final COfflinePlayer player) {
+                if (player == null) throw new CompletionException(new ArgumentRequirementException(notSpecificEnough));
+                return database.supplyAsync(new Supplier<T>() {
+                    @Override
+                    public T get() {
+                        try {
+                            return work.apply(player);
+                        } catch (CommandException e) {
+                            throw new CompletionException(e);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    protected interface TargetWork<T> {
+        T apply(COfflinePlayer target) throws CommandException;
     }
 }
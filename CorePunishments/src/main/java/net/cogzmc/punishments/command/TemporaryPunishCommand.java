@@ -3,6 +3,7 @@ package net.cogzmc.punishments.command;
 import com.google.common.base.Joiner;
 import net.cogzmc.core.Core;
 import net.cogzmc.core.modular.command.ArgumentRequirementException;
+import net.cogzmc.core.modular.command.AsyncCommandCallback;
 import net.cogzmc.core.modular.command.CommandException;
 import net.cogzmc.core.modular.command.CommandMeta;
 import net.cogzmc.core.player.COfflinePlayer;
@@ -14,6 +15,7 @@ import net.cogzmc.punishments.types.PunishmentException;
 import net.cogzmc.punishments.types.TimedPunishment;
 
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 @CommandMeta(
         description = "Punish the target player for a specified amount of time",
@@ -25,22 +27,31 @@ public final class TemporaryPunishCommand<T extends TimedPunishment> extends Bas
     }
 
     @Override
-    protected void handleCommand(CPlayer sender, String[] args) throws CommandException {
-        Punishments module = Core.getModule(Punishments.class);
+    protected void handleCommand(final CPlayer sender, String[] args) throws CommandException {
+        final Punishments module = Core.getModule(Punishments.class);
         super.handleCommand(sender, args);
         if (args.length < 3)
             throw new ArgumentRequirementException("You must specify a target, length, and reason to " + name + " someone!");
         String target = args[0];
-        String reason = Joiner.on(" ").join(Arrays.copyOfRange(args, 2, args.length));
-        Integer seconds = TimeUtils.parseTime(args[1]).intValue();
+        final String reason = Joiner.on(" ").join(Arrays.copyOfRange(args, 2, args.length));
+        final Integer seconds = TimeUtils.parseTime(args[1]).intValue();
         if (seconds == 0) throw new ArgumentRequirementException("The time you specified is invalid!");
-        COfflinePlayer targetByArg = getTargetByArg(target);
-        if (targetByArg == null) throw new ArgumentRequirementException("You have specified a player that is not specific enough!");
-        try {
-            punishmentManager.punish(targetByArg, reason, sender, seconds);
-        } catch (PunishmentException e) {
-            sender.sendMessage(module.getFormat("punishment-error", new String[]{"<error>", e.getMessage()}));
-        }
-        sender.sendMessage(module.getFormat("punishment-success", new String[]{"<punishment>", name}, new String[]{"<target>", targetByArg.getName()}, new String[]{"<reason>", reason}));
+        CompletableFuture<String> punished = withTarget(getTargetByArg(target), "You have specified a player that is not specific enough!", new TargetWork<String>() {
+            @Override
+            public String apply(COfflinePlayer targetByArg) throws CommandException {
+                try {
+                    punishmentManager.punish(targetByArg, reason, sender, seconds);
+                } catch (PunishmentException e) {
+                    throw new PunishmentFailedException(e.getMessage());
+                }
+                return module.getFormat("punishment-success", new String[]{"<punishment>", name}, new String[]{"<target>", targetByArg.getName()}, new String[]{"<reason>", reason});
+            }
+        });
+        completeAsync(sender.getBukkitPlayer(), args, punished, new AsyncCommandCallback<String>() {
+            @Override
+            public void call(String message) {
+                if (sender.isOnline()) sender.sendMessage(message);
+            }
+        });
     }
 }
@@ -9,6 +9,8 @@ import net.cogzmc.punishments.Punishments;
 import net.cogzmc.punishments.types.Punishment;
 import org.bukkit.command.CommandSender;
 
+import java.util.concurrent.CompletableFuture;
+
 @CommandMeta(
         description = "Un-punish the specified player!",
         usage = "/un[punishment] [target]"
@@ -24,14 +26,23 @@ public final class UnPunishCommand<T extends Punishment> extends BasePunishComma
     }
 
     @Override
-    protected void handleCommandUnspecific(CommandSender sender, String[] args) throws CommandException {
+    protected void handleCommandUnspecific(final CommandSender sender, String[] args) throws CommandException {
         if (!sender.hasPermission("punish." + name)) throw new PermissionException("You do not have permission to " + name + " people!");
         if (args.length < 1) throw new ArgumentRequirementException("You have not specified a player!");
-        COfflinePlayer targetByArg = getTargetByArg(args[0]);
-        if (targetByArg == null) throw new ArgumentRequirementException("The player specified is not specific enough!");
-        T activePunishmentFor = punishmentManager.getActivePunishmentFor(targetByArg);
-        if (activePunishmentFor == null) throw new ArgumentRequirementException("This user has no punishment!");
-        punishmentManager.revokePunishment(activePunishmentFor);
-        sender.sendMessage(Core.getModule(Punishments.class).getFormat("unpunish-success", new String[]{"<target>", targetByArg.getName()}, new String[]{"<punishment>", clazz.getSimpleName().toLowerCase()}, new String[]{"<reason>", activePunishmentFor.getMessage()}));
+        CompletableFuture<String> revoked = withTarget(getTargetByArg(args[0]), "The player specified is not specific enough!", new TargetWork<String>() {
+            @Override
+            public String apply(COfflinePlayer targetByArg) throws CommandException {
+                T activePunishmentFor = punishmentManager.getActivePunishmentFor(targetByArg);
+                if (activePunishmentFor == null) throw new ArgumentRequirementException("This user has no punishment!");
+                punishmentManager.revokePunishment(activePunishmentFor);
+                return Core.getModule(Punishments.class).getFormat("unpunish-success", new String[]{"<target>", targetByArg.getName()}, new String[]{"<punishment>", clazz.getSimpleName().toLowerCase()}, new String[]{"<reason>", activePunishmentFor.getMessage()});
+            }
+        });
+        completeAsync(sender, args, revoked, new AsyncCommandCallback<String>() {
+            @Override
+            public void call(String message) {
+                sender.sendMessage(message);
+            }
+        });
     }
 }
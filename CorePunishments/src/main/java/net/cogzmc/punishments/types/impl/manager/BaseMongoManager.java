@@ -6,6 +6,9 @@ import net.cogzmc.core.player.COfflinePlayer;
 import net.cogzmc.core.player.CPlayer;
 import net.cogzmc.core.player.CPlayerJoinException;
 import net.cogzmc.core.player.mongo.CMongoDatabase;
+import net.cogzmc.core.player.mongo.MongoIndexManager;
+import net.cogzmc.core.player.mongo.MongoSchemaMigrator;
+import net.cogzmc.core.player.mongo.MongoUtils;
 import net.cogzmc.punishments.PunishEvent;
 import net.cogzmc.punishments.PunishmentManager;
 import net.cogzmc.punishments.Punishments;
@@ -20,24 +23,36 @@ import org.ocpsoft.prettytime.PrettyTime;
 
 import java.net.InetAddress;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static net.cogzmc.core.player.mongo.MongoUtils.getValueFrom;
 
 @SuppressWarnings("UnusedParameters")
 abstract class BaseMongoManager<T extends MongoPunishment> implements PunishmentManager<T> {
+    //How long a database thread waits for the main thread to call the PunishEvent. The main thread may itself be waiting on the database threads (such as while shutting down).
+    private static final long PUNISH_EVENT_WAIT_MILLIS = 5000;
     protected final DBCollection collection;
-    private final Map<CPlayer, T> activePunishments = new HashMap<>();
+    //Commands punish and revoke from a database thread, so this is read from more than just the main thread.
+    private final Map<CPlayer, T> activePunishments = new ConcurrentHashMap<>();
     protected final Class<T> punishmentClazz;
 
     public BaseMongoManager(Class<T> clazz) {
         punishmentClazz = clazz;
         if (Core.getInstance().getCDatabase() == null || !(Core.getInstance().getCDatabase() instanceof CMongoDatabase))
             throw new IllegalStateException("This is a mongo bean in a strange world! (You've used a mongo punishment system with a non-mongo DB");
-        collection = ((CMongoDatabase) Core.getInstance().getCDatabase()).getCollection(clazz.getSimpleName().toLowerCase() + "_punishments");
-        if (collection.getIndexInfo().size() == 1) {
-            collection.createIndex(new BasicDBObject(PunishmentKey.TARGET.toString(), 1));
-            collection.createIndex(new BasicDBObject(PunishmentKey.ISSUER.toString(), 1));
-        }
+        CMongoDatabase database = (CMongoDatabase) Core.getInstance().getCDatabase();
+        String collectionName = clazz.getSimpleName().toLowerCase() + "_punishments";
+        collection = database.getCollection(collectionName);
+        MongoIndexManager indexManager = database.getIndexManager();
+        indexManager.declareIndex(collectionName, new BasicDBObject(PunishmentKey.TARGET.toString(), 1));
+        indexManager.declareIndex(collectionName, new BasicDBObject(PunishmentKey.ISSUER.toString(), 1));
+        indexManager.ensureIndexes(collectionName);
+        database.getSchemaMigrator().migrate(collectionName, PunishmentKey.TARGET.toString(), PunishmentKey.ISSUER.toString());
     }
 
     private T createNewPunishment(COfflinePlayer target, String reason, COfflinePlayer issuer) {
@@ -52,9 +67,10 @@ abstract class BaseMongoManager<T extends MongoPunishment> implements Punishment
     void onRevoke(CPlayer player, T punishment) {}
 
     DBObject convertToDBObject(T punishment) {
-        BasicDBObjectBuilder builder = BasicDBObjectBuilder.start().add(PunishmentKey.ISSUER.toString(), punishment.getIssuer().getUniqueIdentifier().toString())
+        BasicDBObjectBuilder builder = BasicDBObjectBuilder.start().add(PunishmentKey.ISSUER.toString(), punishment.getIssuer().getUniqueIdentifier())
+                .add(PunishmentKey.SCHEMA_VERSION.toString(), MongoSchemaMigrator.SCHEMA_VERSION)
                 .add(PunishmentKey.DATE_ISSUED.toString(), punishment.getDateIssued())
-                .add(PunishmentKey.TARGET.toString(), punishment.getTarget().getUniqueIdentifier().toString())
+                .add(PunishmentKey.TARGET.toString(), punishment.getTarget().getUniqueIdentifier())
                 .add(PunishmentKey.ACTIVE.toString(), punishment.isActive())
                 .add(PunishmentKey.REASON.toString(), punishment.getMessage());
         if (punishment.getMongoId() != null) builder.add("_id", punishment.getMongoId());
@@ -62,13 +78,45 @@ abstract class BaseMongoManager<T extends MongoPunishment> implements Punishment
     }
 
     T getFromDBObject(DBObject object) {
-        UUID issuer = UUID.fromString(getValueFrom(object, PunishmentKey.ISSUER, String.class));
-        UUID target = UUID.fromString(getValueFrom(object, PunishmentKey.TARGET, String.class));
+        return getFromDBObjects(Collections.singletonList(object)).get(0);
+    }
+
+    List<T> getFromDBObjects(List<DBObject> objects) {
+        //Look up everyone mentioned in these punishments at once, instead of two lookups per punishment.
+        Set<UUID> uuids = new LinkedHashSet<>();
+        for (DBObject object : objects) {
+            uuids.add(getUUIDFrom(object, PunishmentKey.ISSUER));
+            uuids.add(getUUIDFrom(object, PunishmentKey.TARGET));
+        }
+        Map<UUID, COfflinePlayer> players = new HashMap<>();
+        for (COfflinePlayer player : Core.getPlayerManager().getOfflinePlayersByUUIDS(new ArrayList<>(uuids))) {
+            players.put(player.getUniqueIdentifier(), player);
+        }
+        List<T> punishments = new ArrayList<>();
+        for (DBObject object : objects) {
+            punishments.add(getFromDBObject(object, players));
+        }
+        return punishments;
+    }
+
+    T getFromDBObject(DBObject object, Map<UUID, COfflinePlayer> players) {
+        UUID issuer = getUUIDFrom(object, PunishmentKey.ISSUER);
+        UUID target = getUUIDFrom(object, PunishmentKey.TARGET);
         Boolean revoked = getValueFrom(object, PunishmentKey.ACTIVE, Boolean.class);
         String reason = getValueFrom(object, PunishmentKey.REASON, String.class);
         Date issued = getValueFrom(object, PunishmentKey.DATE_ISSUED, Date.class);
         ObjectId id = getValueFrom(object, "_id", ObjectId.class);
-        return createNewPunishment(id, Core.getOfflinePlayerByUUID(target), reason, Core.getOfflinePlayerByUUID(issuer), issued, revoked);
+        return createNewPunishment(id, getPlayerFrom(players, target), reason, getPlayerFrom(players, issuer), issued, revoked);
+    }
+
+    static UUID getUUIDFrom(DBObject object, PunishmentKey key) {
+        return MongoUtils.getUUIDFrom(object, key);
+    }
+
+    //Anyone the batch lookup didn't find (such as the console, or a player who never joined) is looked up on their own like before.
+    static COfflinePlayer getPlayerFrom(Map<UUID, COfflinePlayer> players, UUID uuid) {
+        COfflinePlayer player = players.get(uuid);
+        return player != null ? player : Core.getOfflinePlayerByUUID(uuid);
     }
 
     @Override
@@ -76,24 +124,75 @@ abstract class BaseMongoManager<T extends MongoPunishment> implements Punishment
         if (getActivePunishmentFor(target) != null) throw new PunishmentException("A punishment of this type already exists!");
         if (!(target instanceof CPlayer) && punishmentClazz.isAnnotationPresent(TargetOnlinesOnly.class)) throw new PunishmentException("You can only punish online players with this!");
         T newPunishment = createNewPunishment(target, reason, issuer);
-        PunishEvent punishEvent = new PunishEvent(target, issuer, newPunishment);
-        Bukkit.getPluginManager().callEvent(punishEvent);
-        if (punishEvent.isCancelled()) throw new PunishmentException("The punishment was cancelled!");
+        if (!callPunishEvent(new PunishEvent(target, issuer, newPunishment))) throw new PunishmentException("The punishment was cancelled!");
         DBObject dbObject = convertToDBObject(newPunishment);
         newPunishment.setMongoId((ObjectId) dbObject.get("_id"));
         collection.save(dbObject);
-        if (target instanceof CPlayer) onPunish((CPlayer) target, newPunishment);
+        if (target instanceof CPlayer) runOnMainThread(onPunishTask((CPlayer) target, newPunishment));
         return newPunishment;
     }
 
+    /**
+     * Calls the {@link net.cogzmc.punishments.PunishEvent} on the main thread, waiting a limited time for it if we're on another thread.
+     * @param punishEvent The event.
+     * @return {@code true} if the punishment should go ahead.
+     * @throws PunishmentException If the event couldn't be called in time, in which case it never will be.
+     */
+    boolean callPunishEvent(final PunishEvent punishEvent) throws PunishmentException {
+        Callable<Boolean> call = new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                Bukkit.getPluginManager().callEvent(punishEvent);
+                return !punishEvent.isCancelled();
+            }
+        };
+        Future<Boolean> called = null;
+        try {
+            if (Bukkit.isPrimaryThread()) return call.call();
+            Punishments module = Core.getModule(Punishments.class);
+            //Nothing scheduled now would run, and the main thread is likely waiting on us.
+            if (!module.isEnabled()) throw new PunishmentException("The server is shutting down!");
+            called = Bukkit.getScheduler().callSyncMethod(module, call);
+            return called.get(PUNISH_EVENT_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            called.cancel(false);
+            throw new PunishmentException("Timed out checking the punishment!");
+        } catch (PunishmentException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            if (called != null) called.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new PunishmentException("Interrupted while checking the punishment!");
+        } catch (ExecutionException e) {
+            throw new PunishmentException("Could not check the punishment! " + e.getCause().getMessage());
+        } catch (Exception e) {
+            throw new PunishmentException("Could not check the punishment! " + e.getMessage());
+        }
+    }
+
+    //Anything that touches the player (kicking, messages) has to happen on the main thread.
+    static void runOnMainThread(Runnable runnable) {
+        if (Bukkit.isPrimaryThread()) runnable.run();
+        else Bukkit.getScheduler().runTask(Core.getModule(Punishments.class), runnable);
+    }
+
+    Runnable onPunishTask(final CPlayer player, final T punishment) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                onPunish(player, punishment);
+            }
+        };
+    }
+
     @Override
     public List<T> getPunishmentsFor(COfflinePlayer target) {
-        DBCursor dbObjects = collection.find(new BasicDBObject(PunishmentKey.TARGET.toString(), target.getUniqueIdentifier().toString()));
-        List<T> punishments = new ArrayList<>();
+        DBCursor dbObjects = collection.find(new BasicDBObject(PunishmentKey.TARGET.toString(), MongoUtils.getUUIDQuery(target.getUniqueIdentifier())));
+        List<DBObject> objects = new ArrayList<>();
         for (DBObject dbObject : dbObjects) {
-            punishments.add(getFromDBObject(dbObject));
+            objects.add(dbObject);
         }
-        return punishments;
+        return getFromDBObjects(objects);
     }
 
     @Override
@@ -134,7 +233,15 @@ abstract class BaseMongoManager<T extends MongoPunishment> implements Punishment
         punishment.setActive(false);
         DBObject dbObject = convertToDBObject(punishment);
         collection.save(dbObject);
-        if (punishment.getTarget() instanceof CPlayer) onRevoke((CPlayer) punishment.getTarget(), punishment);
+        if (!(punishment.getTarget() instanceof CPlayer)) return;
+        final CPlayer target = (CPlayer) punishment.getTarget();
+        final T revoked = punishment;
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                onRevoke(target, revoked);
+            }
+        });
     }
 
     @Override
@@ -1,7 +1,6 @@
 package net.cogzmc.punishments.types.impl.manager;
 
 import com.mongodb.DBObject;
-import net.cogzmc.core.Core;
 import net.cogzmc.core.player.COfflinePlayer;
 import net.cogzmc.core.player.CPlayer;
 import net.cogzmc.punishments.PunishEvent;
@@ -10,9 +9,9 @@ import net.cogzmc.punishments.types.PunishmentException;
 import net.cogzmc.punishments.types.impl.TargetOnlinesOnly;
 import net.cogzmc.punishments.types.impl.model.MongoTemporaryPunishment;
 import org.bson.types.ObjectId;
-import org.bukkit.Bukkit;
 
 import java.util.Date;
+import java.util.Map;
 import java.util.UUID;
 
 import static net.cogzmc.core.player.mongo.MongoUtils.getValueFrom;
@@ -37,15 +36,15 @@ abstract class BaseTemporaryMongoManager<T extends MongoTemporaryPunishment> ext
     }
 
     @Override
-    T getFromDBObject(DBObject object) {
-        UUID issuer = UUID.fromString(getValueFrom(object, PunishmentKey.ISSUER, String.class));
-        UUID target = UUID.fromString(getValueFrom(object, PunishmentKey.TARGET, String.class));
+    T getFromDBObject(DBObject object, Map<UUID, COfflinePlayer> players) {
+        UUID issuer = getUUIDFrom(object, PunishmentKey.ISSUER);
+        UUID target = getUUIDFrom(object, PunishmentKey.TARGET);
         Boolean active = getValueFrom(object, PunishmentKey.ACTIVE, Boolean.class);
         String reason = getValueFrom(object, PunishmentKey.REASON, String.class);
         Date issued = getValueFrom(object, PunishmentKey.DATE_ISSUED, Date.class);
         Integer length = getValueFrom(object, PunishmentKey.LENGTH, Integer.class);
         ObjectId id = getValueFrom(object, "_id", ObjectId.class);
-        return createNewPunishment(id, Core.getOfflinePlayerByUUID(target), reason, Core.getOfflinePlayerByUUID(issuer), active, issued, length);
+        return createNewPunishment(id, getPlayerFrom(players, target), reason, getPlayerFrom(players, issuer), active, issued, length);
     }
 
     @Override
@@ -53,13 +52,11 @@ abstract class BaseTemporaryMongoManager<T extends MongoTemporaryPunishment> ext
         if (getActivePunishmentFor(target) != null) throw new PunishmentException("You cannot punish the same player twice!");
         if (!(target instanceof CPlayer) && punishmentClazz.isAnnotationPresent(TargetOnlinesOnly.class)) throw new PunishmentException("You can only punish online players with this!");
         T newPunishment = createNewPunishment(target, reason, issuer, lengthInSeconds);
-        PunishEvent punishEvent = new PunishEvent(target, issuer, newPunishment);
-        Bukkit.getPluginManager().callEvent(punishEvent);
-        if (punishEvent.isCancelled()) throw new PunishmentException("The punishment was cancelled!");
+        if (!callPunishEvent(new PunishEvent(target, issuer, newPunishment))) throw new PunishmentException("The punishment was cancelled!");
         DBObject dbObject = convertToDBObject(newPunishment);
         newPunishment.setMongoId((ObjectId) dbObject.get("_id"));
         collection.save(dbObject);
-        if (target instanceof CPlayer) onPunish((CPlayer) target, newPunishment);
+        if (target instanceof CPlayer) runOnMainThread(onPunishTask((CPlayer) target, newPunishment));
         return newPunishment;
     }
 
@@ -1,14 +1,19 @@
 package net.cogzmc.punishments.types.impl.manager;
 
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
 import net.cogzmc.core.Core;
 import net.cogzmc.core.player.COfflinePlayer;
 import net.cogzmc.core.player.CPlayer;
 import net.cogzmc.core.player.CPlayerJoinException;
+import net.cogzmc.core.player.mongo.MongoUtils;
 import net.cogzmc.punishments.types.impl.model.IPBan;
 import org.bson.types.ObjectId;
 
 import java.net.InetAddress;
 import java.util.Date;
+import java.util.List;
+import java.util.UUID;
 
 public final class IPBanManager extends BaseMongoManager<IPBan> {
     public IPBanManager() {
@@ -26,9 +31,12 @@ public final class IPBanManager extends BaseMongoManager<IPBan> {
 
     @Override
     public void onPlayerLogin(CPlayer player, InetAddress address) throws CPlayerJoinException {
-        for (COfflinePlayer cOfflinePlayer : Core.getPlayerManager().getOfflinePlayersForIP(address)) {
-            IPBan activePunishmentFor = getActivePunishmentFor(cOfflinePlayer);
-            if (activePunishmentFor != null) throwJoinExceptionFor(activePunishmentFor);
+        //Indexed queries for everyone who has used this IP (which also checks the player documents until the IP accounts are backfilled), and one for any of them being banned, without loading any players.
+        List<UUID> uuids = Core.getPlayerManager().getUUIDsForIP(address);
+        if (!uuids.isEmpty()) {
+            DBObject query = new BasicDBObject(PunishmentKey.TARGET.toString(), MongoUtils.getUUIDsQuery(uuids)).append(PunishmentKey.ACTIVE.toString(), true);
+            DBObject activeBan = collection.findOne(query);
+            if (activeBan != null) throwJoinExceptionFor(getFromDBObject(activeBan));
         }
         super.onPlayerLogin(player, address);
     }
@@ -6,7 +6,8 @@ public enum PunishmentKey {
     REASON("reason"),
     LENGTH("length"),
     DATE_ISSUED("issued_date"),
-    ACTIVE("active");
+    ACTIVE("active"),
+    SCHEMA_VERSION("schema_version");
 
     private final String key;
 